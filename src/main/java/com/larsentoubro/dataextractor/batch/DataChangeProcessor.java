@@ -30,6 +30,10 @@ public class DataChangeProcessor implements ItemProcessor<Map<String, Object>, M
     private final String targetSchema;
     private final String targetTable;
     private final List<String> primaryKeys;
+    private final List<String> columns;
+    private final List<String> compareColumns;
+    private final List<String> lobColumns;
+    private final String whereClause;
     private final JdbcTemplate jdbcTemplate;
 
     private final ConcurrentHashMap<Map<String, Object>, Map<String, Object>> targetRecordCache = new ConcurrentHashMap<>();
@@ -45,10 +49,18 @@ public class DataChangeProcessor implements ItemProcessor<Map<String, Object>, M
             @Value("#{jobParameters['targetSchema']}") String targetSchema,
             @Value("#{jobParameters['targetTable']}") String targetTable,
             @Value("#{jobParameters['primaryKeys']}") String primaryKeysCsv,
+            @Value("#{jobExecutionContext['columns']}") String columnsCsv,
+            @Value("#{jobExecutionContext['compareColumns']}") String compareColumnsCsv,
+            @Value("#{jobExecutionContext['lobColumns']}") String lobColumnsCsv,
+            @Value("#{jobExecutionContext['whereClause']}") String whereClause,
             @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate) {
         this.targetSchema = targetSchema;
         this.targetTable = targetTable;
         this.primaryKeys = Arrays.asList(primaryKeysCsv.split(","));
+        this.columns = Arrays.asList(columnsCsv.split(","));
+        this.compareColumns = compareColumnsCsv.isBlank() ? List.of() : Arrays.asList(compareColumnsCsv.split(","));
+        this.lobColumns = lobColumnsCsv.isBlank() ? List.of() : Arrays.asList(lobColumnsCsv.split(","));
+        this.whereClause = whereClause;
         this.jdbcTemplate = jdbcTemplate;
     }
 
@@ -118,11 +130,12 @@ public class DataChangeProcessor implements ItemProcessor<Map<String, Object>, M
         cacheLock.lock();
         try {
             int currentOffset = offset.get();
-            String sql = "SELECT * FROM " + targetSchema + "." + targetTable +
+            String sql = "SELECT " + targetSelectClause() + " FROM " + targetSchema + "." + targetTable +
+                    (whereClause.isBlank() ? "" : " WHERE " + whereClause) +
                     " ORDER BY " + String.join(", ", primaryKeys) + " ASC " +
                     " OFFSET " + currentOffset + " ROWS FETCH NEXT 5000 ROWS ONLY";
 
-            List<Map<String, Object>> records = jdbcTemplate.queryForList(sql);
+            List<Map<String, Object>> records = jdbcTemplate.query(sql, new LobDigestRowMapper(lobColumns));
             if (records.isEmpty()) {
                 hasMoreTargetRecords.set(false);
                 return;
@@ -140,6 +153,13 @@ public class DataChangeProcessor implements ItemProcessor<Map<String, Object>, M
         }
     }
 
+    // Only the keys and the compared columns are needed to detect changes
+    private String targetSelectClause() {
+        Set<String> selected = new LinkedHashSet<>(primaryKeys);
+        selected.addAll(compareColumns.isEmpty() ? columns : compareColumns);
+        return LobDigestRowMapper.selectClause(selected, lobColumns);
+    }
+
     private Map<String, Object> getPrimaryKeyMap(Map<String, Object> record) {
         return primaryKeys.stream().collect(Collectors.toMap(pk -> pk, record::get));
     }
@@ -157,7 +177,16 @@ public class DataChangeProcessor implements ItemProcessor<Map<String, Object>, M
             }
         }
 
-        // Compare non-primary key fields
+        // Compare configured columns, or every non-primary key field when none are configured
+        if (!compareColumns.isEmpty()) {
+            for (String key : compareColumns) {
+                if (!Objects.equals(newRecord.get(key), existingRecord.get(key))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         for (String key : newRecord.keySet()) {
             if (!primaryKeys.contains(key) && !"LastModifiedAt".equals(key) && !"CreatedAt".equals(key)) {
                 if (!Objects.equals(newRecord.get(key), existingRecord.get(key))) {
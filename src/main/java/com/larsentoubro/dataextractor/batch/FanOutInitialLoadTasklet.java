@@ -0,0 +1,109 @@
+package com.larsentoubro.dataextractor.batch;
+
+import com.larsentoubro.dataextractor.config.DataSourceConfig;
+import com.larsentoubro.dataextractor.service.WorkItemCoordinator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bulk loads every target of a multi-target table that is empty or has an interrupted initial load, one after
+ * the other, and records them in the job execution context so that the fan-out step leaves them out.
+ * <p>
+ * Unlike the fan-out step, each pending target gets its own source read. A bulk copy streams LOB values straight
+ * off its source result set, so sharing one read would mean holding every LOB in memory until all targets took it,
+ * and each target resumes from its own last loaded key. Only targets that need an initial load pay for the extra read.
+ */
+@Slf4j
+@Component
+@StepScope
+public class FanOutInitialLoadTasklet implements Tasklet {
+
+    public static final String BULK_LOADED_TARGETS = "bulkLoadedTargets";
+    public static final ExitStatus ALL_TARGETS_LOADED = new ExitStatus("ALL_TARGETS_LOADED");
+
+    private final String sourceSchema;
+    private final String sourceTable;
+    private final String primaryKeys;
+    private final String columns;
+    private final String whereClause;
+    private final List<String> targets = new ArrayList<>();
+    private final Long workItemId;
+    private final long batchBytes;
+    private final JdbcTemplate sourceJdbcTemplate;
+    private final DataSourceConfig dataSourceConfig;
+    private final WorkItemCoordinator workItemCoordinator;
+
+    @Autowired
+    public FanOutInitialLoadTasklet(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                                    @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                                    @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
+                                    @Value("#{jobExecutionContext['columns']}") String columns,
+                                    @Value("#{jobExecutionContext['whereClause']}") String whereClause,
+                                    @Value("#{jobParameters['targetDatabase']}") String targetDatabase,
+                                    @Value("#{jobParameters['targetSchema']}") String targetSchema,
+                                    @Value("#{jobParameters['targetTable']}") String targetTable,
+                                    @Value("#{jobExecutionContext['additionalTargets']}") String additionalTargetsCsv,
+                                    @Value("#{jobParameters['workItemId']}") Long workItemId,
+                                    @Value("${dataextractor.initial-load.batch-bytes:16777216}") long batchBytes,
+                                    @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+                                    DataSourceConfig dataSourceConfig,
+                                    WorkItemCoordinator workItemCoordinator) {
+        this.sourceSchema = sourceSchema;
+        this.sourceTable = sourceTable;
+        this.primaryKeys = primaryKeys;
+        this.columns = columns;
+        this.whereClause = whereClause;
+        this.targets.add(targetDatabase + "." + targetSchema + "." + targetTable);
+        this.targets.addAll(Arrays.asList(additionalTargetsCsv.split(",")));
+        this.workItemId = workItemId;
+        this.batchBytes = batchBytes;
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.dataSourceConfig = dataSourceConfig;
+        this.workItemCoordinator = workItemCoordinator;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) throws Exception {
+        List<String> loaded = new ArrayList<>();
+        for (String target : targets) {
+            String[] parts = target.split("\\.", 3);
+            DataSource dataSource = dataSourceConfig.targetDataSourceFor(parts[0]);
+            try {
+                JdbcTemplate targetJdbcTemplate = new JdbcTemplate(dataSource);
+                if (!InitialLoadDecider.needsInitialLoad(targetJdbcTemplate, parts[1], parts[2])) {
+                    continue;
+                }
+
+                log.info("Target {} is empty or its initial load was interrupted. Using bulk initial load.", target);
+                new InitialLoadTasklet(sourceSchema, sourceTable, parts[1], parts[2], primaryKeys, columns, whereClause,
+                        workItemId, batchBytes, sourceJdbcTemplate, targetJdbcTemplate, workItemCoordinator)
+                        .execute(contribution, chunkContext);
+                loaded.add(target);
+            } finally {
+                DataSourceConfig.closeDataSource(dataSource);
+            }
+        }
+
+        chunkContext.getStepContext().getStepExecution().getJobExecution().getExecutionContext()
+                .putString(BULK_LOADED_TARGETS, String.join(",", loaded));
+        if (loaded.size() == targets.size()) {
+            contribution.setExitStatus(ALL_TARGETS_LOADED);
+        }
+        return RepeatStatus.FINISHED;
+    }
+}
@@ -0,0 +1,207 @@
+package com.larsentoubro.dataextractor.batch;
+
+import com.larsentoubro.dataextractor.config.DataSourceConfig;
+import com.larsentoubro.dataextractor.service.WorkItemCoordinator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.item.Chunk;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands every chunk read from the source to one branch per target. Each branch diffs and writes on its own
+ * thread behind a bounded queue, so a slow target holds the reader back by at most that queue, and a failed
+ * target is dropped without failing the others.
+ */
+@Slf4j
+@Component
+@StepScope
+public class FanOutItemWriter implements ItemWriter<Map<String, Object>>, StepExecutionListener {
+
+    public static final ExitStatus COMPLETED_WITH_FAILED_TARGETS = new ExitStatus("COMPLETED_WITH_FAILED_TARGETS");
+
+    private static final List<Map<String, Object>> END_OF_INPUT = new ArrayList<>();
+    private static final long OFFER_TIMEOUT_SECONDS = 1;
+
+    private final List<TargetBranch> branches = new ArrayList<>();
+
+    @Autowired
+    public FanOutItemWriter(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                            @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                            @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
+                            @Value("#{jobExecutionContext['columns']}") String columns,
+                            @Value("#{jobExecutionContext['compareColumns']}") String compareColumns,
+                            @Value("#{jobExecutionContext['lobColumns']}") String lobColumns,
+                            @Value("#{jobExecutionContext['whereClause']}") String whereClause,
+                            @Value("#{jobParameters['targetDatabase']}") String targetDatabase,
+                            @Value("#{jobParameters['targetSchema']}") String targetSchema,
+                            @Value("#{jobParameters['targetTable']}") String targetTable,
+                            @Value("#{jobExecutionContext['additionalTargets']}") String additionalTargetsCsv,
+                            @Value("#{jobExecutionContext['bulkLoadedTargets']}") String bulkLoadedTargetsCsv,
+                            @Value("#{jobParameters['workItemId']}") Long workItemId,
+                            @Value("${dataextractor.fan-out.buffer-chunks:4}") int bufferChunks,
+                            DataSourceConfig dataSourceConfig,
+                            @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                            WorkItemCoordinator workItemCoordinator) {
+
+        List<String> targets = new ArrayList<>();
+        targets.add(targetDatabase + "." + targetSchema + "." + targetTable);
+        targets.addAll(Arrays.asList(additionalTargetsCsv.split(",")));
+        // Targets that were just bulk loaded already hold every source row
+        if (bulkLoadedTargetsCsv != null && !bulkLoadedTargetsCsv.isBlank()) {
+            targets.removeAll(Arrays.asList(bulkLoadedTargetsCsv.split(",")));
+        }
+
+        for (String target : targets) {
+            String[] parts = target.split("\\.", 3);
+            DataSource dataSource = dataSourceConfig.targetDataSourceFor(parts[0]);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            DataChangeProcessor processor = new DataChangeProcessor(parts[1], parts[2], primaryKeys, columns,
+                    compareColumns, lobColumns, whereClause, jdbcTemplate);
+            UpsertItemWriter writer = new UpsertItemWriter(sourceSchema, sourceTable, parts[1], parts[2], primaryKeys,
+                    columns, lobColumns, workItemId, jdbcTemplate, sourceDataSource, workItemCoordinator);
+            branches.add(new TargetBranch(target, dataSource, processor, writer, new ArrayBlockingQueue<>(bufferChunks)));
+        }
+    }
+
+    @Override
+    public void beforeStep(StepExecution stepExecution) {
+        for (TargetBranch branch : branches) {
+            try {
+                branch.processor.checkTargetTableStatus();
+            } catch (Exception e) {
+                branch.fail(e);
+            }
+            branch.worker.start();
+        }
+    }
+
+    @Override
+    public void write(Chunk<? extends Map<String, Object>> items) throws Exception {
+        if (items.isEmpty()) return;
+
+        List<Map<String, Object>> batch = new ArrayList<>(items.getItems());
+        for (TargetBranch branch : branches) {
+            if (branch.failure.get() == null) {
+                branch.enqueue(batch);
+            }
+        }
+        if (branches.stream().allMatch(branch -> branch.failure.get() != null)) {
+            throw new IllegalStateException("All targets failed", branches.get(0).failure.get());
+        }
+    }
+
+    @Override
+    public ExitStatus afterStep(StepExecution stepExecution) {
+        boolean anyFailed = false;
+        for (TargetBranch branch : branches) {
+            try {
+                branch.enqueue(END_OF_INPUT);
+                branch.worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                branch.fail(e);
+            } finally {
+                DataSourceConfig.closeDataSource(branch.dataSource);
+            }
+
+            stepExecution.getExecutionContext().putLong(branch.target + ".filtered", branch.filtered.get());
+            stepExecution.getExecutionContext().putLong(branch.target + ".written", branch.written.get());
+            stepExecution.getExecutionContext().putString(branch.target + ".status", branch.failure.get() == null ? "COMPLETED" : "FAILED");
+            log.info("Target {}: {} records written, {} unchanged, status {}", branch.target, branch.written.get(),
+                    branch.filtered.get(), branch.failure.get() == null ? "COMPLETED" : "FAILED");
+            anyFailed |= branch.failure.get() != null;
+        }
+
+        if (stepExecution.getStatus().isUnsuccessful()) {
+            return stepExecution.getExitStatus();
+        }
+        return anyFailed ? COMPLETED_WITH_FAILED_TARGETS : stepExecution.getExitStatus();
+    }
+
+    private static class TargetBranch {
+
+        private final String target;
+        private final DataSource dataSource;
+        private final DataChangeProcessor processor;
+        private final UpsertItemWriter writer;
+        private final BlockingQueue<List<Map<String, Object>>> queue;
+        private final Thread worker;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        private final AtomicLong written = new AtomicLong();
+        private final AtomicLong filtered = new AtomicLong();
+
+        private TargetBranch(String target, DataSource dataSource, DataChangeProcessor processor, UpsertItemWriter writer,
+                             BlockingQueue<List<Map<String, Object>>> queue) {
+            this.target = target;
+            this.dataSource = dataSource;
+            this.processor = processor;
+            this.writer = writer;
+            this.queue = queue;
+            this.worker = new Thread(this::drain, "fan-out-" + target);
+        }
+
+        // Keeps taking chunks after a failure so the reader is never blocked on a dead target
+        private void drain() {
+            while (true) {
+                List<Map<String, Object>> batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    fail(e);
+                    return;
+                }
+                if (batch == END_OF_INPUT) return;
+                if (failure.get() != null) continue;
+
+                try {
+                    List<Map<String, Object>> changed = new ArrayList<>();
+                    for (Map<String, Object> item : batch) {
+                        Map<String, Object> result = processor.process(item);
+                        if (result != null) {
+                            changed.add(result);
+                        }
+                    }
+                    writer.write(new Chunk<>(changed));
+                    written.addAndGet(changed.size());
+                    filtered.addAndGet(batch.size() - changed.size());
+                } catch (Throwable e) {
+                    // Errors too, otherwise the thread would end without marking the branch failed
+                    fail(e);
+                }
+            }
+        }
+
+        // Waits for room in the queue only while the worker is alive, so a dead branch is failed instead of
+        // blocking the reader for good
+        private void enqueue(List<Map<String, Object>> batch) throws InterruptedException {
+            while (!queue.offer(batch, OFFER_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                if (!worker.isAlive()) {
+                    fail(new IllegalStateException("Worker of target " + target + " stopped"));
+                    return;
+                }
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (failure.compareAndSet(null, e)) {
+                log.error("Target {} failed, continuing with the remaining targets", target, e);
+            }
+        }
+    }
+}
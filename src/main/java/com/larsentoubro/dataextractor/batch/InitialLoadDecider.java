@@ -0,0 +1,64 @@
+package com.larsentoubro.dataextractor.batch;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.configuration.annotation.JobScope;
+import org.springframework.batch.core.job.flow.FlowExecutionStatus;
+import org.springframework.batch.core.job.flow.JobExecutionDecider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes a job to the bulk initial load when the target table is empty, or when a previous
+ * initial load for the same table was interrupted, and to the incremental upsert otherwise.
+ */
+@Slf4j
+@Component
+@JobScope
+public class InitialLoadDecider implements JobExecutionDecider {
+
+    public static final FlowExecutionStatus INITIAL_LOAD = new FlowExecutionStatus("INITIAL_LOAD");
+    public static final FlowExecutionStatus INCREMENTAL = new FlowExecutionStatus("INCREMENTAL");
+
+    private final String targetSchema;
+    private final String targetTable;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public InitialLoadDecider(@Value("#{jobParameters['targetSchema']}") String targetSchema,
+                              @Value("#{jobParameters['targetTable']}") String targetTable,
+                              @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        this.targetSchema = targetSchema;
+        this.targetTable = targetTable;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @Override
+    public FlowExecutionStatus decide(JobExecution jobExecution, StepExecution stepExecution) {
+        if (needsInitialLoad(jdbcTemplate, targetSchema, targetTable)) {
+            log.info("Target table {}.{} is empty or its initial load was interrupted. Using bulk initial load.", targetSchema, targetTable);
+            return INITIAL_LOAD;
+        }
+        return INCREMENTAL;
+    }
+
+    /**
+     * Shared with the distributed run planner, which keeps tables that still need their initial load in one piece.
+     */
+    public static boolean needsInitialLoad(JdbcTemplate jdbcTemplate, String targetSchema, String targetTable) {
+        Integer pendingLoads = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM dbo.BATCH_INITIAL_LOAD WHERE TARGET_SCHEMA = ? AND TARGET_TABLE = ? AND STATUS = ?",
+                Integer.class, targetSchema, targetTable, InitialLoadTasklet.STATUS_STARTED);
+        if (pendingLoads != null && pendingLoads > 0) {
+            return true;
+        }
+
+        String emptySql = "SELECT CASE WHEN EXISTS (SELECT 1 FROM " + targetSchema + "." + targetTable + ") THEN 0 ELSE 1 END";
+        Integer isEmpty = jdbcTemplate.queryForObject(emptySql, Integer.class);
+        return isEmpty != null && isEmpty == 1;
+    }
+}
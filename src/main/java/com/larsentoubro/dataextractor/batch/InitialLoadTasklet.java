@@ -0,0 +1,282 @@
+package com.larsentoubro.dataextractor.batch;
+
+import com.larsentoubro.dataextractor.service.WorkItemCoordinator;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopy;
+import com.microsoft.sqlserver.jdbc.SQLServerBulkCopyOptions;
+import com.microsoft.sqlserver.jdbc.SQLServerConnection;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.StepContribution;
+import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.core.step.tasklet.Tasklet;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Streams a source table into an empty target with {@link SQLServerBulkCopy} instead of the per-row upsert.
+ * Nonclustered indexes are disabled for the duration of the load and only those are rebuilt afterwards. Every bulk copy batch
+ * commits on its own, so an interrupted load is resumed from the highest primary key already in the target.
+ */
+@Slf4j
+@Component
+@StepScope
+public class InitialLoadTasklet implements Tasklet {
+
+    public static final String STATUS_STARTED = "STARTED";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+
+    private static final int MAX_COLUMN_WIDTH = 8000;
+    private static final int MIN_BATCH_SIZE = 500;
+    private static final int MAX_BATCH_SIZE = 100000;
+
+    private final String sourceSchema;
+    private final String sourceTable;
+    private final String targetSchema;
+    private final String targetTable;
+    private final List<String> primaryKeys;
+    private final List<String> columns;
+    private final String whereClause;
+    private final JdbcTemplate sourceJdbcTemplate;
+    private final JdbcTemplate targetJdbcTemplate;
+    private final long batchBytes;
+    private final Long workItemId;
+    private final WorkItemCoordinator workItemCoordinator;
+
+    @Autowired
+    public InitialLoadTasklet(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                              @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                              @Value("#{jobParameters['targetSchema']}") String targetSchema,
+                              @Value("#{jobParameters['targetTable']}") String targetTable,
+                              @Value("#{jobParameters['primaryKeys']}") String primaryKeysCsv,
+                              @Value("#{jobExecutionContext['columns']}") String columnsCsv,
+                              @Value("#{jobExecutionContext['whereClause']}") String whereClause,
+                              @Value("#{jobParameters['workItemId']}") Long workItemId,
+                              @Value("${dataextractor.initial-load.batch-bytes:16777216}") long batchBytes,
+                              @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+                              @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate,
+                              WorkItemCoordinator workItemCoordinator) {
+        this.sourceSchema = sourceSchema;
+        this.sourceTable = sourceTable;
+        this.targetSchema = targetSchema;
+        this.targetTable = targetTable;
+        this.primaryKeys = Arrays.asList(primaryKeysCsv.split(","));
+        this.columns = Arrays.asList(columnsCsv.split(","));
+        this.whereClause = whereClause;
+        this.batchBytes = batchBytes;
+        this.sourceJdbcTemplate = sourceJdbcTemplate;
+        this.targetJdbcTemplate = targetJdbcTemplate;
+        this.workItemId = workItemId;
+        this.workItemCoordinator = workItemCoordinator;
+    }
+
+    @Override
+    public RepeatStatus execute(StepContribution contribution, ChunkContext chunkContext) {
+        workItemCoordinator.checkLease(workItemId);
+        markLoad(STATUS_STARTED);
+        List<String> disabledIndexes = disableNonClusteredIndexes();
+
+        int batchSize = calculateBatchSize();
+        Object[] lastKey = findLastLoadedKey();
+
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(columns.stream().map(c -> "s.[" + c + "]").collect(Collectors.joining(", ")))
+                .append(", GETDATE() AS CreatedAt FROM ")
+                .append(sourceSchema).append(".").append(sourceTable).append(" s");
+        List<String> filters = new ArrayList<>();
+        if (!whereClause.isBlank()) {
+            filters.add("(" + whereClause + ")");
+        }
+        if (lastKey != null) {
+            filters.add(buildKeysetPredicate(primaryKeys));
+        }
+        if (!filters.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", filters));
+        }
+        if (lastKey != null) {
+            log.info("Resuming initial load of {}.{} after key {}.", targetSchema, targetTable, Arrays.toString(lastKey));
+        }
+        sql.append(" ORDER BY ").append(primaryKeys.stream().map(pk -> "s.[" + pk + "] ASC").collect(Collectors.joining(", ")));
+
+        log.info("Bulk loading {}.{} into {}.{} with batch size {}.", sourceSchema, sourceTable, targetSchema, targetTable, batchSize);
+
+        sourceJdbcTemplate.setFetchSize(batchSize);
+        sourceJdbcTemplate.query(sql.toString(), (ResultSetExtractor<Void>) rs -> {
+            bulkCopy(rs, batchSize);
+            return null;
+        }, lastKey == null ? new Object[0] : buildKeysetParameters(primaryKeys.size(), lastKey));
+
+        rebuildDisabledIndexes(disabledIndexes);
+        markLoad(STATUS_COMPLETED);
+
+        Long loaded = targetJdbcTemplate.queryForObject("SELECT COUNT_BIG(1) FROM " + targetSchema + "." + targetTable, Long.class);
+        contribution.incrementWriteCount(loaded == null ? 0 : loaded);
+        log.info("Initial load of {}.{} completed with {} records.", targetSchema, targetTable, loaded);
+        return RepeatStatus.FINISHED;
+    }
+
+    private void bulkCopy(ResultSet rs, int batchSize) {
+        targetJdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            SQLServerBulkCopyOptions options = new SQLServerBulkCopyOptions();
+            options.setTableLock(true);
+            options.setKeepIdentity(true);
+            options.setKeepNulls(true);
+            options.setBatchSize(batchSize);
+            options.setUseInternalTransaction(true);
+            options.setBulkCopyTimeout(0);
+
+            try (SQLServerBulkCopy bulkCopy = new SQLServerBulkCopy(connection.unwrap(SQLServerConnection.class))) {
+                bulkCopy.setBulkCopyOptions(options);
+                bulkCopy.setDestinationTableName(targetSchema + "." + targetTable);
+
+                ResultSetMetaData metaData = rs.getMetaData();
+                for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                    String column = metaData.getColumnLabel(i);
+                    bulkCopy.addColumnMapping(column, column);
+                }
+                bulkCopy.writeToServer(leaseGuarded(rs));
+            }
+            return null;
+        });
+    }
+
+    // The bulk copy pulls every row through next(), so a lost lease stops the load between two rows
+    private ResultSet leaseGuarded(ResultSet rs) {
+        if (workItemId == null) {
+            return rs;
+        }
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    if ("next".equals(method.getName())) {
+                        workItemCoordinator.checkLease(workItemId);
+                    }
+                    try {
+                        return method.invoke(rs, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    private int calculateBatchSize() {
+        Integer rowWidth = sourceJdbcTemplate.queryForObject(
+                "SELECT SUM(CASE WHEN max_length = -1 THEN " + MAX_COLUMN_WIDTH + " ELSE max_length END) " +
+                        "FROM sys.columns WHERE object_id = OBJECT_ID(?) AND name IN (" +
+                        columns.stream().map(c -> "?").collect(Collectors.joining(", ")) + ")",
+                Integer.class, buildRowWidthParameters());
+        if (rowWidth == null || rowWidth <= 0) {
+            return MIN_BATCH_SIZE;
+        }
+        long batchSize = batchBytes / rowWidth;
+        return (int) Math.max(MIN_BATCH_SIZE, Math.min(MAX_BATCH_SIZE, batchSize));
+    }
+
+    private Object[] buildRowWidthParameters() {
+        List<Object> params = new ArrayList<>();
+        params.add(sourceSchema + "." + sourceTable);
+        params.addAll(columns);
+        return params.toArray();
+    }
+
+    private Object[] findLastLoadedKey() {
+        String sql = "SELECT TOP 1 " + primaryKeys.stream().map(pk -> "[" + pk + "]").collect(Collectors.joining(", ")) +
+                " FROM " + targetSchema + "." + targetTable +
+                " ORDER BY " + primaryKeys.stream().map(pk -> "[" + pk + "] DESC").collect(Collectors.joining(", "));
+        List<Object[]> rows = targetJdbcTemplate.query(sql, (rs, rowNum) -> {
+            Object[] key = new Object[primaryKeys.size()];
+            for (int i = 0; i < key.length; i++) {
+                key[i] = rs.getObject(i + 1);
+            }
+            return key;
+        });
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    // (k1 > ?) OR (k1 = ? AND k2 > ?) OR ... so composite keys resume in sort order
+    static String buildKeysetPredicate(List<String> primaryKeys) {
+        List<String> terms = new ArrayList<>();
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            List<String> parts = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                parts.add("s.[" + primaryKeys.get(j) + "] = ?");
+            }
+            parts.add("s.[" + primaryKeys.get(i) + "] > ?");
+            terms.add("(" + String.join(" AND ", parts) + ")");
+        }
+        return "(" + String.join(" OR ", terms) + ")";
+    }
+
+    // Each OR term binds the key prefix up to and including its own column
+    static Object[] buildKeysetParameters(int keyColumns, Object[] lastKey) {
+        List<Object> params = new ArrayList<>();
+        for (int i = 0; i < keyColumns; i++) {
+            params.addAll(Arrays.asList(lastKey).subList(0, i + 1));
+        }
+        return params.toArray();
+    }
+
+    // Indexes that were already disabled before the load, e.g. by a DBA, are left alone. The ones disabled here
+    // are recorded before they are disabled, so that a resumed load still knows which ones to rebuild.
+    private List<String> disableNonClusteredIndexes() {
+        List<String> disabledIndexes = new ArrayList<>(findRecordedIndexes());
+        List<String> indexes = targetJdbcTemplate.queryForList(
+                "SELECT name FROM sys.indexes WHERE object_id = OBJECT_ID(?) AND type_desc = 'NONCLUSTERED' " +
+                        "AND is_disabled = 0 AND is_primary_key = 0 AND is_unique_constraint = 0",
+                String.class, targetSchema + "." + targetTable);
+        if (indexes.isEmpty()) {
+            return disabledIndexes;
+        }
+
+        disabledIndexes.addAll(indexes);
+        recordDisabledIndexes(String.join(",", disabledIndexes));
+        for (String index : indexes) {
+            targetJdbcTemplate.execute("ALTER INDEX [" + index + "] ON " + targetSchema + "." + targetTable + " DISABLE");
+            log.info("Disabled index {} on {}.{} for initial load.", index, targetSchema, targetTable);
+        }
+        return disabledIndexes;
+    }
+
+    private void rebuildDisabledIndexes(List<String> disabledIndexes) {
+        for (String index : disabledIndexes) {
+            targetJdbcTemplate.execute("ALTER INDEX [" + index + "] ON " + targetSchema + "." + targetTable + " REBUILD");
+            log.info("Rebuilt index {} on {}.{}.", index, targetSchema, targetTable);
+        }
+        recordDisabledIndexes(null);
+    }
+
+    private List<String> findRecordedIndexes() {
+        String recorded = targetJdbcTemplate.queryForObject(
+                "SELECT DISABLED_INDEXES FROM dbo.BATCH_INITIAL_LOAD WHERE TARGET_SCHEMA = ? AND TARGET_TABLE = ?",
+                String.class, targetSchema, targetTable);
+        return recorded == null || recorded.isBlank() ? List.of() : Arrays.asList(recorded.split(","));
+    }
+
+    private void recordDisabledIndexes(String indexes) {
+        targetJdbcTemplate.update(
+                "UPDATE dbo.BATCH_INITIAL_LOAD SET DISABLED_INDEXES = ?, LAST_UPDATED = GETDATE() WHERE TARGET_SCHEMA = ? AND TARGET_TABLE = ?",
+                indexes, targetSchema, targetTable);
+    }
+
+    private void markLoad(String status) {
+        int updated = targetJdbcTemplate.update(
+                "UPDATE dbo.BATCH_INITIAL_LOAD SET STATUS = ?, LAST_UPDATED = GETDATE() WHERE TARGET_SCHEMA = ? AND TARGET_TABLE = ?",
+                status, targetSchema, targetTable);
+        if (updated == 0) {
+            targetJdbcTemplate.update(
+                    "INSERT INTO dbo.BATCH_INITIAL_LOAD (TARGET_SCHEMA, TARGET_TABLE, STATUS, LAST_UPDATED) VALUES (?, ?, ?, GETDATE())",
+                    targetSchema, targetTable, status);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.larsentoubro.dataextractor.batch;
+
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.RepeatStatus;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+import org.springframework.batch.repeat.support.RepeatSynchronizationManager;
+
+import java.util.Map;
+
+/**
+ * Completes a chunk after the configured number of items, or earlier once the LOB bytes read into it
+ * exceed the budget, so a run of very large attachments does not end up in a single write.
+ */
+public class LobByteBudgetCompletionPolicy extends SimpleCompletionPolicy implements ItemReadListener<Map<String, Object>> {
+
+    private static final String LOB_BYTES = LobByteBudgetCompletionPolicy.class.getName() + ".LOB_BYTES";
+
+    private final long byteBudget;
+
+    public LobByteBudgetCompletionPolicy(int chunkSize, long byteBudget) {
+        super(chunkSize);
+        this.byteBudget = byteBudget;
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context, RepeatStatus result) {
+        return super.isComplete(context, result) || isOverBudget(context);
+    }
+
+    @Override
+    public boolean isComplete(RepeatContext context) {
+        return super.isComplete(context) || isOverBudget(context);
+    }
+
+    @Override
+    public void afterRead(Map<String, Object> item) {
+        RepeatContext context = RepeatSynchronizationManager.getContext();
+        if (context == null) return;
+
+        long bytes = item.values().stream()
+                .filter(LobDigest.class::isInstance)
+                .mapToLong(value -> ((LobDigest) value).length())
+                .sum();
+        if (bytes > 0) {
+            Long current = (Long) context.getAttribute(LOB_BYTES);
+            context.setAttribute(LOB_BYTES, (current == null ? 0 : current) + bytes);
+        }
+    }
+
+    private boolean isOverBudget(RepeatContext context) {
+        Long bytes = (Long) context.getAttribute(LOB_BYTES);
+        return bytes != null && bytes >= byteBudget;
+    }
+}
@@ -0,0 +1,8 @@
+package com.larsentoubro.dataextractor.batch;
+
+/**
+ * Stands in for a (max) column value during change detection: the server-computed SHA-256 of the
+ * content and its length in bytes. The content itself is only streamed when the row is written.
+ */
+public record LobDigest(String hash, long length) {
+}
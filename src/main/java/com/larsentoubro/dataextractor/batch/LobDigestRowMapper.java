@@ -0,0 +1,50 @@
+package com.larsentoubro.dataextractor.batch;
+
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Maps rows selected with {@link #selectClause} so that every LOB column holds a {@link LobDigest}
+ * instead of its content.
+ */
+public class LobDigestRowMapper extends ColumnMapRowMapper {
+
+    private static final String LENGTH_SUFFIX = "__length";
+
+    private final Set<String> lobColumns;
+
+    public LobDigestRowMapper(Collection<String> lobColumns) {
+        this.lobColumns = caseInsensitiveSet(lobColumns);
+    }
+
+    public static String selectClause(Collection<String> columns, Collection<String> lobColumns) {
+        Set<String> lobs = caseInsensitiveSet(lobColumns);
+        return columns.stream()
+                .map(c -> lobs.contains(c)
+                        ? "HASHBYTES('SHA2_256', [" + c + "]) AS [" + c + "], DATALENGTH([" + c + "]) AS [" + c + LENGTH_SUFFIX + "]"
+                        : "[" + c + "]")
+                .collect(Collectors.joining(", "));
+    }
+
+    @Override
+    public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+        Map<String, Object> row = super.mapRow(rs, rowNum);
+        for (String column : lobColumns) {
+            if (!row.containsKey(column)) continue;
+            Object length = row.remove(column + LENGTH_SUFFIX);
+            byte[] hash = (byte[]) row.get(column);
+            row.put(column, hash == null ? null : new LobDigest(HexFormat.of().formatHex(hash), ((Number) length).longValue()));
+        }
+        return row;
+    }
+
+    private static Set<String> caseInsensitiveSet(Collection<String> columns) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(columns);
+        return set;
+    }
+}
@@ -8,7 +8,6 @@ import org.springframework.batch.item.database.support.SqlPagingQueryProviderFac
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.stereotype.Component;
 
 import javax.sql.DataSource;
@@ -26,19 +25,26 @@ public class SourceTableItemReader extends JdbcPagingItemReader<Map<String, Obje
     public SourceTableItemReader(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
                                  @Value("#{jobParameters['sourceTable']}") String sourceTable,
                                  @Value("#{jobParameters['primaryKeys']}") String primaryKeysCsv,
+                                 @Value("#{jobExecutionContext['columns']}") String columnsCsv,
+                                 @Value("#{jobExecutionContext['lobColumns']}") String lobColumnsCsv,
+                                 @Value("#{jobExecutionContext['whereClause']}") String whereClause,
                                  @Qualifier("sourceDataSource") DataSource dataSource) {
 
         setDataSource(dataSource);
         setPageSize(5000);  // Optimized for large tables
         setFetchSize(5000);
-        setRowMapper(new ColumnMapRowMapper());
 
         List<String> primaryKeys = Arrays.asList(primaryKeysCsv.split(","));
+        List<String> lobColumns = lobColumnsCsv.isBlank() ? List.of() : Arrays.asList(lobColumnsCsv.split(","));
+        setRowMapper(new LobDigestRowMapper(lobColumns));
 
         SqlPagingQueryProviderFactoryBean queryProvider = new SqlPagingQueryProviderFactoryBean();
         queryProvider.setDataSource(dataSource);
-        queryProvider.setSelectClause("*");
+        queryProvider.setSelectClause(LobDigestRowMapper.selectClause(Arrays.asList(columnsCsv.split(",")), lobColumns));
         queryProvider.setFromClause(sourceSchema + "." + sourceTable);
+        if (!whereClause.isBlank()) {
+            queryProvider.setWhereClause(whereClause);
+        }
         queryProvider.setSortKeys(primaryKeys.stream().collect(Collectors.toMap(pk -> pk, pk -> Order.ASCENDING)));
 
         try {
@@ -47,6 +53,6 @@ public class SourceTableItemReader extends JdbcPagingItemReader<Map<String, Obje
             throw new RuntimeException("Failed to set query provider", e);
         }
 
-        log.info("Configured reader for table: {}.{} with primary keys: {}", sourceSchema, sourceTable, primaryKeys);
+        log.info("Configured reader for table: {}.{} with primary keys: {}, columns: {}, where: {}", sourceSchema, sourceTable, primaryKeys, columnsCsv, whereClause);
     }
 }
@@ -0,0 +1,35 @@
+package com.larsentoubro.dataextractor.batch;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Carries the resolved column lists, row filter and extra targets of a table into the job execution context.
+ * They can outgrow the VARCHAR(2500) that job parameters are stored in, so only the table key is passed as a
+ * job parameter and the values are registered here before the job is launched.
+ */
+@Component
+public class TableProjectionListener implements JobExecutionListener {
+
+    public static final String TABLE_KEY = "tableKey";
+
+    private final Map<String, Map<String, String>> projections = new ConcurrentHashMap<>();
+
+    public void register(String tableKey, Map<String, String> projection) {
+        projections.put(tableKey, projection);
+    }
+
+    @Override
+    public void beforeJob(JobExecution jobExecution) {
+        String tableKey = jobExecution.getJobParameters().getString(TABLE_KEY);
+        Map<String, String> projection = projections.get(tableKey);
+        if (projection == null) {
+            throw new IllegalStateException("No projection registered for table " + tableKey);
+        }
+        projection.forEach(jobExecution.getExecutionContext()::putString);
+    }
+}
@@ -1,6 +1,6 @@
 package com.larsentoubro.dataextractor.batch;
 
-import jakarta.transaction.Transactional;
+import com.larsentoubro.dataextractor.service.WorkItemCoordinator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.item.Chunk;
@@ -9,8 +9,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.sql.DataSource;
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.*;
 import java.util.*;
 import java.util.stream.Collectors;
 
@@ -19,27 +28,56 @@ import java.util.stream.Collectors;
 @StepScope
 public class UpsertItemWriter implements ItemWriter<Map<String, Object>> {
 
+    private static final String STAGING_TABLE = "#upsert_lob_chunk";
+    // SQL Server accepts up to 2100 parameters per statement
+    private static final int MAX_PARAMETERS = 2000;
+
     private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final DataSource sourceDataSource;
+    private final String sourceSchema;
+    private final String sourceTable;
     private final String targetSchema;
     private final String targetTable;
     private final List<String> primaryKeys;
+    private final List<String> columns;
+    private final List<String> lobColumns;
+    private final Long workItemId;
+    private final WorkItemCoordinator workItemCoordinator;
 
     @Autowired
-    public UpsertItemWriter(@Value("#{jobParameters['targetSchema']}") String targetSchema,
+    public UpsertItemWriter(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                            @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                            @Value("#{jobParameters['targetSchema']}") String targetSchema,
                             @Value("#{jobParameters['targetTable']}") String targetTable,
                             @Value("#{jobParameters['primaryKeys']}") String primaryKeysCsv,
-                            @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate) {
+                            @Value("#{jobExecutionContext['columns']}") String columnsCsv,
+                            @Value("#{jobExecutionContext['lobColumns']}") String lobColumnsCsv,
+                            @Value("#{jobParameters['workItemId']}") Long workItemId,
+                            @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate,
+                            @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                            WorkItemCoordinator workItemCoordinator) {
         this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(jdbcTemplate.getDataSource()));
+        this.sourceDataSource = sourceDataSource;
+        this.sourceSchema = sourceSchema;
+        this.sourceTable = sourceTable;
         this.targetSchema = targetSchema;
         this.targetTable = targetTable;
         this.primaryKeys = Arrays.asList(primaryKeysCsv.split(","));
+        this.columns = Arrays.asList(columnsCsv.split(","));
+        this.lobColumns = lobColumnsCsv.isBlank() ? List.of() : Arrays.asList(lobColumnsCsv.split(","));
+        this.workItemId = workItemId;
+        this.workItemCoordinator = workItemCoordinator;
     }
 
     @Override
-    @Transactional
     public void write(Chunk<? extends Map<String, Object>> items) {
         if (items.isEmpty()) return;
 
+        // In a distributed run another instance takes over the range once the lease is lost
+        workItemCoordinator.checkLease(workItemId);
+
         List<Map<String, Object>> batch = new ArrayList<>(items.getItems());
 
         String identityCountQuery = "SELECT COUNT(*) " +
@@ -48,20 +86,142 @@ public class UpsertItemWriter implements ItemWriter<Map<String, Object>> {
 
         boolean hasIdentity = jdbcTemplate.queryForObject(identityCountQuery, Integer.class, targetTable) > 0;
 
-        String sql = buildMergeQuery(batch, hasIdentity);
+        if (!lobColumns.isEmpty()) {
+            // Staging and the final insert share one connection, so the chunk is written completely or not at all
+            transactionTemplate.executeWithoutResult(status -> writeWithLobColumns(batch, hasIdentity));
+            return;
+        }
+
+        String sql = buildMergeQuery(hasIdentity, "(SELECT ? AS " + String.join(", ? AS ", columns) + ")");
 
         List<Object[]> batchParams = new ArrayList<>();
         for (Map<String, Object> item : batch) {
-            Object[] params = item.values().toArray();
+            Object[] params = columns.stream().map(item::get).toArray();
             batchParams.add(params);
         }
 
         jdbcTemplate.batchUpdate(sql, batchParams);
     }
 
-    private String buildMergeQuery(List<Map<String, Object>> batch, boolean hasIdentity) {
+    // Items only carry digests for LOB columns. Each row is staged with its LOB content streamed from the source,
+    // one ordered source read per LOB column, and the staged chunk then goes into the target in a single insert.
+    private void writeWithLobColumns(List<Map<String, Object>> batch, boolean hasIdentity) {
+        String target = targetSchema + "." + targetTable;
+        String columnList = columns.stream().map(c -> "[" + c + "]").collect(Collectors.joining(", "));
+        // The UNION keeps the identity property off the staging table, so it accepts the source key values
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + STAGING_TABLE + "; " +
+                "SELECT " + columnList + " INTO " + STAGING_TABLE + " FROM " + target + " WHERE 1 = 0 " +
+                "UNION ALL SELECT " + columnList + " FROM " + target + " WHERE 1 = 0");
+        try {
+            Map<List<Object>, Map<String, Object>> itemsByKey = new HashMap<>();
+            for (Map<String, Object> item : batch) {
+                itemsByKey.put(primaryKeys.stream().map(item::get).toList(), item);
+            }
+
+            Set<List<Object>> staged = new HashSet<>();
+            try (Connection connection = sourceDataSource.getConnection()) {
+                for (String lobColumn : lobColumns) {
+                    boolean firstLobColumn = lobColumn.equals(lobColumns.get(0));
+                    for (List<Map<String, Object>> keys : partition(batch, MAX_PARAMETERS / primaryKeys.size())) {
+                        stageLobColumn(connection, lobColumn, firstLobColumn, keys, itemsByKey, staged);
+                    }
+                }
+            } catch (SQLException e) {
+                throw new RuntimeException("Failed to stream LOB columns " + lobColumns + " from " + sourceSchema + "." + sourceTable, e);
+            }
+
+            if (staged.size() < batch.size()) {
+                log.warn("{} rows of {}.{} were deleted from the source before their LOB columns were read and are skipped",
+                        batch.size() - staged.size(), sourceSchema, sourceTable);
+            }
+            jdbcTemplate.update(buildMergeQuery(hasIdentity, STAGING_TABLE));
+        } finally {
+            jdbcTemplate.execute("DROP TABLE IF EXISTS " + STAGING_TABLE);
+        }
+    }
+
+    private void stageLobColumn(Connection connection, String lobColumn, boolean firstLobColumn, List<Map<String, Object>> keys,
+                                Map<List<Object>, Map<String, Object>> itemsByKey, Set<List<Object>> staged) throws SQLException {
+        String keyColumns = primaryKeys.stream().map(pk -> "[" + pk + "]").collect(Collectors.joining(", "));
+        String keyPredicate = primaryKeys.stream().map(pk -> "[" + pk + "] = ?").collect(Collectors.joining(" AND "));
+        String selectSql = "SELECT " + keyColumns + ", [" + lobColumn + "] FROM " + sourceSchema + "." + sourceTable +
+                " WHERE " + keys.stream().map(key -> "(" + keyPredicate + ")").collect(Collectors.joining(" OR ")) +
+                " ORDER BY " + keyColumns;
+        // The first LOB column stages the whole row, the others fill in their column
+        String stagingSql = firstLobColumn
+                ? "INSERT INTO " + STAGING_TABLE + " (" + columns.stream().map(c -> "[" + c + "]").collect(Collectors.joining(", ")) + ") " +
+                  "VALUES (" + columns.stream().map(c -> "?").collect(Collectors.joining(", ")) + ")"
+                : "UPDATE " + STAGING_TABLE + " SET [" + lobColumn + "] = ? WHERE " + keyPredicate;
+
+        try (PreparedStatement statement = connection.prepareStatement(selectSql)) {
+            int index = 1;
+            for (Map<String, Object> key : keys) {
+                for (String pk : primaryKeys) {
+                    StatementCreatorUtils.setParameterValue(statement, index++, SqlTypeValue.TYPE_UNKNOWN, key.get(pk));
+                }
+            }
+            try (ResultSet rs = statement.executeQuery()) {
+                while (rs.next()) {
+                    List<Object> key = new ArrayList<>();
+                    for (int i = 1; i <= primaryKeys.size(); i++) {
+                        key.add(JdbcUtils.getResultSetValue(rs, i));
+                    }
+                    Map<String, Object> item = itemsByKey.get(key);
+                    if (item == null || (!firstLobColumn && !staged.contains(key))) continue;
+
+                    // Streams are read in column order straight off the source row, after the key columns
+                    int lobIndex = primaryKeys.size() + 1;
+                    int lobType = rs.getMetaData().getColumnType(lobIndex);
+                    Object stream = isBinary(lobType) ? rs.getBinaryStream(lobIndex) : rs.getCharacterStream(lobIndex);
+                    jdbcTemplate.update(stagingSql, ps -> {
+                        if (firstLobColumn) {
+                            for (int i = 0; i < columns.size(); i++) {
+                                String column = columns.get(i);
+                                if (column.equalsIgnoreCase(lobColumn)) {
+                                    setStream(ps, i + 1, lobType, stream);
+                                } else {
+                                    StatementCreatorUtils.setParameterValue(ps, i + 1, SqlTypeValue.TYPE_UNKNOWN,
+                                            lobColumns.contains(column) ? null : item.get(column));
+                                }
+                            }
+                        } else {
+                            setStream(ps, 1, lobType, stream);
+                            for (int i = 0; i < key.size(); i++) {
+                                StatementCreatorUtils.setParameterValue(ps, i + 2, SqlTypeValue.TYPE_UNKNOWN, key.get(i));
+                            }
+                        }
+                    });
+                    if (firstLobColumn) {
+                        staged.add(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void setStream(PreparedStatement ps, int index, int sqlType, Object stream) throws SQLException {
+        if (stream == null) {
+            ps.setNull(index, sqlType);
+        } else if (stream instanceof Reader reader) {
+            ps.setCharacterStream(index, reader);
+        } else {
+            ps.setBinaryStream(index, (InputStream) stream);
+        }
+    }
+
+    private static <T> List<List<T>> partition(List<T> list, int size) {
+        List<List<T>> partitions = new ArrayList<>();
+        for (int i = 0; i < list.size(); i += size) {
+            partitions.add(list.subList(i, Math.min(i + size, list.size())));
+        }
+        return partitions;
+    }
+
+    private boolean isBinary(int sqlType) {
+        return sqlType == Types.BINARY || sqlType == Types.VARBINARY || sqlType == Types.LONGVARBINARY || sqlType == Types.BLOB;
+    }
 
-        List<String> columns = new ArrayList<>(batch.get(0).keySet());
+    private String buildMergeQuery(boolean hasIdentity, String rows) {
 
         String setIdentityOn = "SET IDENTITY_INSERT " + targetSchema + "." + targetTable + " ON; ";
         String setIdentityOff = "SET IDENTITY_INSERT " + targetSchema + "." + targetTable + " OFF; ";
@@ -78,7 +238,7 @@ public class UpsertItemWriter implements ItemWriter<Map<String, Object>> {
                 "   THEN GETDATE() " +
                 "   ELSE NULL " +
                 "END " +
-                "FROM (SELECT ? AS " + String.join(", ? AS ", columns) + ") AS s; ";
+                "FROM " + rows + " AS s; ";
 
         return hasIdentity ? setIdentityOn + mergeQuery + setIdentityOff : mergeQuery;
     }
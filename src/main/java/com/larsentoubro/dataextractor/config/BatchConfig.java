@@ -1,10 +1,22 @@
 package com.larsentoubro.dataextractor.config;
 
 import com.larsentoubro.dataextractor.batch.DataChangeProcessor;
+import com.larsentoubro.dataextractor.batch.FanOutInitialLoadTasklet;
+import com.larsentoubro.dataextractor.batch.FanOutItemWriter;
+import com.larsentoubro.dataextractor.batch.InitialLoadDecider;
+import com.larsentoubro.dataextractor.batch.InitialLoadTasklet;
+import com.larsentoubro.dataextractor.batch.LobByteBudgetCompletionPolicy;
 import com.larsentoubro.dataextractor.batch.SourceTableItemReader;
+import com.larsentoubro.dataextractor.batch.TableProjectionListener;
 import com.larsentoubro.dataextractor.batch.UpsertItemWriter;
+import com.larsentoubro.dataextractor.service.WorkItemCoordinator;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemReadListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.Step;
+import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
+import org.springframework.batch.core.configuration.annotation.JobScope;
 import org.springframework.batch.core.configuration.annotation.StepScope;
 import org.springframework.batch.core.job.builder.JobBuilder;
 import org.springframework.batch.core.launch.JobLauncher;
@@ -20,6 +32,7 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.batch.BatchDataSourceScriptDatabaseInitializer;
 import org.springframework.boot.autoconfigure.batch.BatchProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Scope;
@@ -31,9 +44,12 @@ import org.springframework.transaction.PlatformTransactionManager;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Map;
 
 @Configuration
+@EnableBatchProcessing(dataSourceRef = "targetDataSource", tablePrefix = "dbo.BATCH_")
+@EnableConfigurationProperties(BatchProperties.class)
 //@EnableScheduling
 public class BatchConfig {
 
@@ -71,15 +87,33 @@ public class BatchConfig {
         return new DataSourceTransactionManager(targetDataSource);
     }
 
+    /**
+     * full records every chunk, summary records steps when they start and finish and otherwise at most once
+     * per flush interval.
+     */
     @Bean
-    public JobRepository jobRepository(PlatformTransactionManager transactionManager) throws Exception {
+    public JobRepository jobRepository(PlatformTransactionManager transactionManager,
+                                       @Value("${dataextractor.job-repository.detail:full}") String detail,
+                                       @Value("${dataextractor.job-repository.summary-flush-seconds:30}") long summaryFlushSeconds) throws Exception {
+        if (!"full".equals(detail) && !"summary".equals(detail)) {
+            throw new IllegalArgumentException("Unknown job repository detail " + detail + ", expected full or summary");
+        }
+
         JobRepositoryFactoryBean factory = new JobRepositoryFactoryBean();
         factory.setDatabaseType("SQLSERVER");
         factory.setDataSource(targetDataSource);
         factory.setTransactionManager(transactionManager);
         factory.setIsolationLevelForCreate("ISOLATION_READ_COMMITTED");
         factory.afterPropertiesSet();
-        return factory.getObject();
+        JobRepository jobRepository = factory.getObject();
+
+        if ("summary".equals(detail)) {
+            ProxyFactory proxyFactory = new ProxyFactory(jobRepository);
+            proxyFactory.addInterface(JobRepository.class);
+            proxyFactory.addAdvice(new StepProgressThrottlingInterceptor(Duration.ofSeconds(summaryFlushSeconds)));
+            return (JobRepository) proxyFactory.getProxy();
+        }
+        return jobRepository;
     }
 
     @Bean(name = "upsertJobLauncher")
@@ -94,8 +128,11 @@ public class BatchConfig {
     public SourceTableItemReader itemReader(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
                                             @Value("#{jobParameters['sourceTable']}") String sourceTable,
                                             @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
+                                            @Value("#{jobExecutionContext['columns']}") String columns,
+                                            @Value("#{jobExecutionContext['lobColumns']}") String lobColumns,
+                                            @Value("#{jobExecutionContext['whereClause']}") String whereClause,
                                             @Qualifier("sourceDataSource") DataSource dataSource) throws IOException {
-        return new SourceTableItemReader(sourceSchema, sourceTable, primaryKeys, dataSource);
+        return new SourceTableItemReader(sourceSchema, sourceTable, primaryKeys, columns, lobColumns, whereClause, dataSource);
     }
 
     @Bean
@@ -104,17 +141,70 @@ public class BatchConfig {
             @Value("#{jobParameters['targetSchema']}") String targetSchema,
             @Value("#{jobParameters['targetTable']}") String targetTable,
             @Value("#{jobParameters['primaryKeys']}") String primaryKeysCsv,
+            @Value("#{jobExecutionContext['columns']}") String columnsCsv,
+            @Value("#{jobExecutionContext['compareColumns']}") String compareColumnsCsv,
+            @Value("#{jobExecutionContext['lobColumns']}") String lobColumnsCsv,
+            @Value("#{jobExecutionContext['whereClause']}") String whereClause,
             @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate) {
-        return new DataChangeProcessor(targetSchema, targetTable, primaryKeysCsv, jdbcTemplate);
+        return new DataChangeProcessor(targetSchema, targetTable, primaryKeysCsv, columnsCsv, compareColumnsCsv, lobColumnsCsv,
+                whereClause, jdbcTemplate);
     }
 
     @Bean
     @StepScope
-    public UpsertItemWriter itemWriter(@Value("#{jobParameters['targetSchema']}") String targetSchema,
+    public UpsertItemWriter itemWriter(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                                       @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                                       @Value("#{jobParameters['targetSchema']}") String targetSchema,
                                        @Value("#{jobParameters['targetTable']}") String targetTable,
                                        @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
-                                       @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate) {
-        return new UpsertItemWriter(targetSchema, targetTable, primaryKeys, jdbcTemplate);
+                                       @Value("#{jobExecutionContext['columns']}") String columns,
+                                       @Value("#{jobExecutionContext['lobColumns']}") String lobColumns,
+                                       @Value("#{jobParameters['workItemId']}") Long workItemId,
+                                       @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate,
+                                       @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                       WorkItemCoordinator workItemCoordinator) {
+        return new UpsertItemWriter(sourceSchema, sourceTable, targetSchema, targetTable, primaryKeys, columns, lobColumns,
+                workItemId, jdbcTemplate, sourceDataSource, workItemCoordinator);
+    }
+
+    @Bean
+    @JobScope
+    public InitialLoadDecider initialLoadDecider(@Value("#{jobParameters['targetSchema']}") String targetSchema,
+                                                 @Value("#{jobParameters['targetTable']}") String targetTable,
+                                                 @Qualifier("targetJdbcTemplate") JdbcTemplate jdbcTemplate) {
+        return new InitialLoadDecider(targetSchema, targetTable, jdbcTemplate);
+    }
+
+    @Bean
+    @StepScope
+    public InitialLoadTasklet initialLoadTasklet(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                                                 @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                                                 @Value("#{jobParameters['targetSchema']}") String targetSchema,
+                                                 @Value("#{jobParameters['targetTable']}") String targetTable,
+                                                 @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
+                                                 @Value("#{jobExecutionContext['columns']}") String columns,
+                                                 @Value("#{jobExecutionContext['whereClause']}") String whereClause,
+                                                 @Value("#{jobParameters['workItemId']}") Long workItemId,
+                                                 @Value("${dataextractor.initial-load.batch-bytes:16777216}") long batchBytes,
+                                                 @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+                                                 @Qualifier("targetJdbcTemplate") JdbcTemplate targetJdbcTemplate,
+                                                 WorkItemCoordinator workItemCoordinator) {
+        return new InitialLoadTasklet(sourceSchema, sourceTable, targetSchema, targetTable, primaryKeys, columns,
+                whereClause, workItemId, batchBytes, sourceJdbcTemplate, targetJdbcTemplate, workItemCoordinator);
+    }
+
+    @Bean
+    public Step initialLoadStep(JobRepository jobRepository,
+                                PlatformTransactionManager transactionManager,
+                                InitialLoadTasklet initialLoadTasklet) {
+        return new StepBuilder("initialLoadStep", jobRepository)
+                .tasklet(initialLoadTasklet, transactionManager)
+                .build();
+    }
+
+    @Bean
+    public LobByteBudgetCompletionPolicy chunkCompletionPolicy(@Value("${dataextractor.chunk.lob-byte-budget:268435456}") long lobByteBudget) {
+        return new LobByteBudgetCompletionPolicy(5000, lobByteBudget);
     }
 
     @Bean
@@ -123,21 +213,121 @@ public class BatchConfig {
                            ItemReader<Map<String, Object>> itemReader,
                            ItemProcessor<Map<String, Object>, Map<String, Object>> itemProcessor,
                            ItemWriter<Map<String, Object>> itemWriter,
+                           LobByteBudgetCompletionPolicy chunkCompletionPolicy,
                            TaskExecutor taskExecutor) {
         return new StepBuilder("upsertStep", jobRepository)
-                .<Map<String, Object>, Map<String, Object>>chunk(5000, transactionManager)
+                .<Map<String, Object>, Map<String, Object>>chunk(chunkCompletionPolicy, transactionManager)
                 .reader(itemReader)
                 .processor(itemProcessor)
                 .writer(itemWriter)
+                .listener((ItemReadListener<Map<String, Object>>) chunkCompletionPolicy)
                 .taskExecutor(taskExecutor)
                 .build();
     }
 
+    @Bean
+    @StepScope
+    public FanOutItemWriter fanOutItemWriter(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                                             @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                                             @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
+                                             @Value("#{jobExecutionContext['columns']}") String columns,
+                                             @Value("#{jobExecutionContext['compareColumns']}") String compareColumns,
+                                             @Value("#{jobExecutionContext['lobColumns']}") String lobColumns,
+                                             @Value("#{jobExecutionContext['whereClause']}") String whereClause,
+                                             @Value("#{jobParameters['targetDatabase']}") String targetDatabase,
+                                             @Value("#{jobParameters['targetSchema']}") String targetSchema,
+                                             @Value("#{jobParameters['targetTable']}") String targetTable,
+                                             @Value("#{jobExecutionContext['additionalTargets']}") String additionalTargets,
+                                             @Value("#{jobExecutionContext['bulkLoadedTargets']}") String bulkLoadedTargets,
+                                             @Value("#{jobParameters['workItemId']}") Long workItemId,
+                                             @Value("${dataextractor.fan-out.buffer-chunks:4}") int bufferChunks,
+                                             DataSourceConfig dataSourceConfig,
+                                             @Qualifier("sourceDataSource") DataSource sourceDataSource,
+                                             WorkItemCoordinator workItemCoordinator) {
+        return new FanOutItemWriter(sourceSchema, sourceTable, primaryKeys, columns, compareColumns, lobColumns, whereClause,
+                targetDatabase, targetSchema, targetTable, additionalTargets, bulkLoadedTargets, workItemId, bufferChunks, dataSourceConfig,
+                sourceDataSource, workItemCoordinator);
+    }
+
+    @Bean
+    @StepScope
+    public FanOutInitialLoadTasklet fanOutInitialLoadTasklet(@Value("#{jobParameters['sourceSchema']}") String sourceSchema,
+                                                             @Value("#{jobParameters['sourceTable']}") String sourceTable,
+                                                             @Value("#{jobParameters['primaryKeys']}") String primaryKeys,
+                                                             @Value("#{jobExecutionContext['columns']}") String columns,
+                                                             @Value("#{jobExecutionContext['whereClause']}") String whereClause,
+                                                             @Value("#{jobParameters['targetDatabase']}") String targetDatabase,
+                                                             @Value("#{jobParameters['targetSchema']}") String targetSchema,
+                                                             @Value("#{jobParameters['targetTable']}") String targetTable,
+                                                             @Value("#{jobExecutionContext['additionalTargets']}") String additionalTargets,
+                                                             @Value("#{jobParameters['workItemId']}") Long workItemId,
+                                                             @Value("${dataextractor.initial-load.batch-bytes:16777216}") long batchBytes,
+                                                             @Qualifier("sourceJdbcTemplate") JdbcTemplate sourceJdbcTemplate,
+                                                             DataSourceConfig dataSourceConfig,
+                                                             WorkItemCoordinator workItemCoordinator) {
+        return new FanOutInitialLoadTasklet(sourceSchema, sourceTable, primaryKeys, columns, whereClause, targetDatabase,
+                targetSchema, targetTable, additionalTargets, workItemId, batchBytes, sourceJdbcTemplate, dataSourceConfig,
+                workItemCoordinator);
+    }
+
+    @Bean
+    public Step fanOutInitialLoadStep(JobRepository jobRepository,
+                                      PlatformTransactionManager transactionManager,
+                                      FanOutInitialLoadTasklet fanOutInitialLoadTasklet) {
+        return new StepBuilder("fanOutInitialLoadStep", jobRepository)
+                .tasklet(fanOutInitialLoadTasklet, transactionManager)
+                .build();
+    }
+
+    @Bean
+    public Step fanOutStep(JobRepository jobRepository,
+                           PlatformTransactionManager transactionManager,
+                           ItemReader<Map<String, Object>> itemReader,
+                           FanOutItemWriter fanOutItemWriter,
+                           LobByteBudgetCompletionPolicy chunkCompletionPolicy,
+                           TaskExecutor taskExecutor) {
+        return new StepBuilder("fanOutStep", jobRepository)
+                .<Map<String, Object>, Map<String, Object>>chunk(chunkCompletionPolicy, transactionManager)
+                .reader(itemReader)
+                .writer(fanOutItemWriter)
+                .listener((ItemReadListener<Map<String, Object>>) chunkCompletionPolicy)
+                .taskExecutor(taskExecutor)
+                .build();
+    }
+
+    @Bean(name = "fanOutJob")
+    public Job fanOutJob(JobRepository jobRepository, TableProjectionListener tableProjectionListener,
+                         Step fanOutInitialLoadStep, Step fanOutStep) {
+        return new JobBuilder("fanOutJob", jobRepository)
+                .incrementer(new RunIdIncrementer())
+                .listener(tableProjectionListener)
+                .start(fanOutInitialLoadStep)
+                .on(FanOutInitialLoadTasklet.ALL_TARGETS_LOADED.getExitCode()).end()
+                .from(fanOutInitialLoadStep)
+                .on(ExitStatus.FAILED.getExitCode()).fail()
+                .from(fanOutInitialLoadStep)
+                .on("*").to(fanOutStep)
+                .from(fanOutStep)
+                .on(FanOutItemWriter.COMPLETED_WITH_FAILED_TARGETS.getExitCode()).end(FanOutItemWriter.COMPLETED_WITH_FAILED_TARGETS.getExitCode())
+                .from(fanOutStep)
+                .on(ExitStatus.COMPLETED.getExitCode()).end()
+                .from(fanOutStep)
+                .on("*").fail()
+                .end()
+                .build();
+    }
+
     @Bean(name = "upsertJob")
-    public Job upsertJob(JobRepository jobRepository, Step upsertStep) {
+    public Job upsertJob(JobRepository jobRepository, TableProjectionListener tableProjectionListener,
+                         InitialLoadDecider initialLoadDecider, Step initialLoadStep, Step upsertStep) {
         return new JobBuilder("upsertJob", jobRepository)
                 .incrementer(new RunIdIncrementer())
-                .start(upsertStep)
+                .listener(tableProjectionListener)
+                .start(initialLoadDecider)
+                .on(InitialLoadDecider.INITIAL_LOAD.getName()).to(initialLoadStep)
+                .from(initialLoadDecider)
+                .on("*").to(upsertStep)
+                .end()
                 .build();
     }
 }
@@ -1,6 +1,7 @@
 package com.larsentoubro.dataextractor.config;
 
 import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.jdbc.DataSourceBuilder;
@@ -11,7 +12,10 @@ import org.springframework.context.annotation.Scope;
 import org.springframework.jdbc.core.JdbcTemplate;
 
 import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
 
+@Slf4j
 @Configuration
 public class DataSourceConfig {
     @Value("${spring.datasource.source.url}")
@@ -35,6 +39,15 @@ public class DataSourceConfig {
     @Bean(name = "sourceDataSource")
     @Scope("prototype")
     public DataSource sourceDataSource(@Value("${spring.datasource.source.database:database=IOT_STORE;}") String sourceDatabase) {
+        return createSourceDataSource(sourceDatabase);
+    }
+
+    // For callers that need a source database other than the one currently selected through the system properties
+    public DataSource sourceDataSourceFor(String databaseName) {
+        return createSourceDataSource("database=" + databaseName + ";" + "defaultSchema=dbo;");
+    }
+
+    private DataSource createSourceDataSource(String sourceDatabase) {
         return DataSourceBuilder.create()
                 .url(sourceUrl + sourceDatabase)
                 .username(sourceUsername)
@@ -46,6 +59,15 @@ public class DataSourceConfig {
     @Bean(name = "targetDataSource")
     @Scope("prototype") // Ensures a new instance is created dynamically
     public DataSource targetDataSource(@Value("${spring.datasource.target.database:database=IOT_STORE_bronze;}") String targetDatabase) {
+        return createTargetDataSource(targetDatabase);
+    }
+
+    // For callers that need a target database other than the one currently selected through the system properties
+    public DataSource targetDataSourceFor(String databaseName) {
+        return createTargetDataSource("database=" + databaseName + ";" + "defaultSchema=dbo;");
+    }
+
+    private DataSource createTargetDataSource(String targetDatabase) {
         String fullUrl = targetUrl + targetDatabase;
 
         HikariDataSource hikariDataSource = new HikariDataSource();
@@ -57,6 +79,17 @@ public class DataSourceConfig {
         return hikariDataSource;
     }
 
+    // Data sources handed out by the methods above own a connection pool that the caller has to close
+    public static void closeDataSource(DataSource dataSource) {
+        if (dataSource instanceof Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                log.warn("Failed to close data source {}", dataSource, e);
+            }
+        }
+    }
+
 
     @Bean(name = "sourceJdbcTemplate")
     @Scope("prototype")
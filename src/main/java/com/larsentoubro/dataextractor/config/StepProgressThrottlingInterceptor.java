@@ -0,0 +1,50 @@
+package com.larsentoubro.dataextractor.config;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.batch.core.StepExecution;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thins out the step execution and step execution context writes that the job repository receives after
+ * every chunk. The first write of a running step (its STARTED transition) and every write made once the step
+ * has finished go through; in between, at most one write per flush interval does. The job repository checks
+ * for stop requests while writing the step execution, so a stop is only noticed at those flushes.
+ */
+public class StepProgressThrottlingInterceptor implements MethodInterceptor {
+
+    private final long flushIntervalNanos;
+    private final Map<String, Long> lastFlushes = new ConcurrentHashMap<>();
+
+    public StepProgressThrottlingInterceptor(Duration flushInterval) {
+        this.flushIntervalNanos = flushInterval.toNanos();
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String method = invocation.getMethod().getName();
+        Object[] arguments = invocation.getArguments();
+        if (!("update".equals(method) || "updateExecutionContext".equals(method))
+                || arguments.length != 1
+                || !(arguments[0] instanceof StepExecution stepExecution)) {
+            return invocation.proceed();
+        }
+
+        String key = method + ":" + stepExecution.getId();
+        if (!stepExecution.getStatus().isRunning()) {
+            lastFlushes.remove(key);
+            return invocation.proceed();
+        }
+
+        long now = System.nanoTime();
+        Long lastFlush = lastFlushes.get(key);
+        if (lastFlush != null && now - lastFlush < flushIntervalNanos) {
+            return null;
+        }
+        lastFlushes.put(key, now);
+        return invocation.proceed();
+    }
+}
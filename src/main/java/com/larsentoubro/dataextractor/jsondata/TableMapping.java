@@ -20,4 +20,16 @@ public class TableMapping {
     private String targetSchema;
 
     private String targetTable;
+
+    private List<String> includeColumns;
+
+    private List<String> excludeColumns;
+
+    private List<String> compareColumns;
+
+    // Applied to the source read and the target fetch, so it may only reference projected columns
+    private String whereClause;
+
+    // Further targets written from the same source read as targetSchema.targetTable
+    private List<TargetMapping> additionalTargets;
 }
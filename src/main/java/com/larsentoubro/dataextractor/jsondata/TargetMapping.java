@@ -0,0 +1,20 @@
+package com.larsentoubro.dataextractor.jsondata;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Setter
+@Getter
+public class TargetMapping {
+
+    private String targetDatabase;
+
+    private String targetSchema;
+
+    private String targetTable;
+
+    // Defaults to the source database with the _bronze suffix
+    public String resolveTargetDatabase(String sourceDatabase) {
+        return targetDatabase == null || targetDatabase.isBlank() ? sourceDatabase + "_bronze" : targetDatabase;
+    }
+}
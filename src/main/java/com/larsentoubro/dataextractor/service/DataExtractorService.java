@@ -1,8 +1,13 @@
 package com.larsentoubro.dataextractor.service;
 
+import com.larsentoubro.dataextractor.batch.FanOutItemWriter;
+import com.larsentoubro.dataextractor.batch.InitialLoadDecider;
+import com.larsentoubro.dataextractor.batch.TableProjectionListener;
+import com.larsentoubro.dataextractor.config.DataSourceConfig;
 import com.larsentoubro.dataextractor.jsondata.TableConfig;
 import com.larsentoubro.dataextractor.jsondata.TableMapping;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParameters;
@@ -11,104 +16,332 @@ import org.springframework.batch.core.launch.JobLauncher;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
 import org.springframework.stereotype.Service;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Slf4j
 public class DataExtractorService {
 
-    private final ApplicationContext applicationContext;
     private final JobLauncher jobLauncher;
     private final Job upsertJob;
+    private final Job fanOutJob;
     private final TableConfigLoader tableConfigLoader;
+    private final TableSchemaValidator tableSchemaValidator;
+    private final WorkItemCoordinator workItemCoordinator;
+    private final DataSourceConfig dataSourceConfig;
+    private final TableProjectionListener tableProjectionListener;
+    private final Set<String> initializedDatabases = ConcurrentHashMap.newKeySet();
 
     @Value("${spring.datasource.target.url}")
     private String targetUrl;
 
-    public DataExtractorService(ApplicationContext applicationContext, @Qualifier("upsertJobLauncher") JobLauncher jobLauncher,
-                                @Qualifier("upsertJob") Job upsertJob, TableConfigLoader tableConfigLoader) {
-        this.applicationContext = applicationContext;
+    public DataExtractorService(@Qualifier("upsertJobLauncher") JobLauncher jobLauncher,
+                                @Qualifier("upsertJob") Job upsertJob, @Qualifier("fanOutJob") Job fanOutJob,
+                                TableConfigLoader tableConfigLoader,
+                                TableSchemaValidator tableSchemaValidator, WorkItemCoordinator workItemCoordinator,
+                                DataSourceConfig dataSourceConfig, TableProjectionListener tableProjectionListener) {
         this.jobLauncher = jobLauncher;
         this.upsertJob = upsertJob;
+        this.fanOutJob = fanOutJob;
         this.tableConfigLoader = tableConfigLoader;
+        this.tableSchemaValidator = tableSchemaValidator;
+        this.workItemCoordinator = workItemCoordinator;
+        this.dataSourceConfig = dataSourceConfig;
+        this.tableProjectionListener = tableProjectionListener;
     }
 
+    // The script only creates missing tables, so it is run once per database for the lifetime of the JVM
     private void initializeBatchMetadata(String targetDatabase) {
+        if (initializedDatabases.contains(targetDatabase)) {
+            return;
+        }
+
+        DataSource targetDataSource = dataSourceConfig.targetDataSourceFor(targetDatabase);
         try {
-            DataSource targetDataSource = applicationContext.getBean("targetDataSource", DataSource.class);
             ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
             populator.addScript(new ClassPathResource("create-batch-tables.sql"));
             populator.setSeparator("GO");
 
             try (Connection connection = targetDataSource.getConnection()) {
                 populator.populate(connection);
+                initializedDatabases.add(targetDatabase);
                 log.info("Batch tables initialized in database: {}", targetDatabase);
             }
-            log.info("Initializing batch tables in database: {}", targetDataSource);
-
         } catch (Exception e) {
             log.error("Failed to initialize batch tables in database: {}", targetDatabase, e);
+        } finally {
+            DataSourceConfig.closeDataSource(targetDataSource);
         }
     }
 
     public void runBatchJob() {
         try {
             List<TableConfig> tableConfigs = tableConfigLoader.loadTableConfig();
+            Map<TableMapping, TableSchemaValidator.ResolvedTable> resolvedTables = validateTableMappings(tableConfigs);
+
+            if (workItemCoordinator.isEnabled()) {
+                runDistributed(tableConfigs, resolvedTables);
+                return;
+            }
 
             for (TableConfig tableConfig : tableConfigs) {
-                String sourceDatabaseName = tableConfig.getSourceDatabase();
-                String targetDatabaseName = sourceDatabaseName + "_bronze";
+                for (TableMapping tableMapping : tableConfig.getTablesForChanges()) {
+                    runTable(tableConfig.getSourceDatabase(), tableMapping, resolvedTables.get(tableMapping), "", null);
+                }
+            }
+        } catch (Exception e) {
+            log.error("Batch job execution failed", e);
+        }
+    }
 
-                //this is for test
-//                targetDatabaseName = sourceDatabaseName;
+    private JobExecution runTable(String sourceDatabaseName, TableMapping tableMapping,
+                                  TableSchemaValidator.ResolvedTable resolvedTable, String rangeClause, Long workItemId) throws Exception {
+        String targetDatabaseName = sourceDatabaseName + "_bronze";
 
-                for (TableMapping tableMapping : tableConfig.getTablesForChanges()) {
-                    String targetSchema = tableMapping.getTargetSchema();
-                    String primaryKeys = String.join(",", tableMapping.getPrimaryKey());
+        //this is for test
+//        targetDatabaseName = sourceDatabaseName;
 
-                    // Ensure batch metadata tables exist before job starts
-                    initializeBatchMetadata(targetDatabaseName);
+        String targetSchema = tableMapping.getTargetSchema();
+        String primaryKeys = String.join(",", tableMapping.getPrimaryKey());
 
-                    System.setProperty("spring.datasource.source.database", "database=" + sourceDatabaseName + ";" + "defaultSchema=dbo;");
-                    System.setProperty("spring.datasource.target.database", "database=" + targetDatabaseName + ";" + "defaultSchema=dbo;");
+        // Ensure batch metadata tables exist before job starts
+        initializeBatchMetadata(targetDatabaseName);
 
-                    log.info("Batch metadata initialized for targetDatabase: {}, targetSchema: {}", targetDatabaseName, targetSchema);
+        switchDatabases(sourceDatabaseName, targetDatabaseName);
 
-                    // Manually update targetDataSource dynamically
-                    DataSource targetDataSource = applicationContext.getBean("targetDataSource", DataSource.class);
-                    log.info("New Target DataSource created: {}", targetDataSource);
+        log.info("Batch metadata initialized for targetDatabase: {}, targetSchema: {}", targetDatabaseName, targetSchema);
+        log.info("Target DataSource updated to: {}", targetUrl + "database=" + targetDatabaseName + ";");
 
-                    log.info("Target DataSource updated to: {}", targetUrl + "database=" + targetDatabaseName + ";");
+        String whereClause = Stream.of(tableMapping.getWhereClause(), rangeClause)
+                .filter(clause -> clause != null && !clause.isBlank())
+                .map(clause -> "(" + clause + ")")
+                .collect(Collectors.joining(" AND "));
 
-                    JobParameters jobParameters = new JobParametersBuilder()
-                            .addString("sourceDatabase", sourceDatabaseName)
-                            .addString("sourceSchema", tableMapping.getSourceSchema())
-                            .addString("sourceTable", tableMapping.getSourceTable())
-                            .addString("primaryKeys", primaryKeys)
-                            .addString("targetDatabase", targetDatabaseName)
-                            .addString("targetSchema", targetSchema)
-                            .addString("targetTable", tableMapping.getTargetTable())
-                            .addLong("time", System.currentTimeMillis())
-                            .toJobParameters();
+        String additionalTargets = tableMapping.getAdditionalTargets() == null ? "" : tableMapping.getAdditionalTargets().stream()
+                .map(target -> target.resolveTargetDatabase(sourceDatabaseName) + "." + target.getTargetSchema() + "." + target.getTargetTable())
+                .collect(Collectors.joining(","));
+        // Additional targets keep their own initial load state
+        if (tableMapping.getAdditionalTargets() != null) {
+            tableMapping.getAdditionalTargets().forEach(target -> initializeBatchMetadata(target.resolveTargetDatabase(sourceDatabaseName)));
+        }
 
-                    log.info("Starting batch job for targetDatabase: {}, targetSchema: {}, targetTable: {}", targetDatabaseName, targetSchema, tableMapping.getTargetTable());
+        // Column lists and filters can outgrow a job parameter, so they reach the job through its execution context
+        String tableKey = targetDatabaseName + "." + targetSchema + "." + tableMapping.getTargetTable();
+        tableProjectionListener.register(tableKey, Map.of(
+                "columns", String.join(",", resolvedTable.columns()),
+                "lobColumns", String.join(",", resolvedTable.lobColumns()),
+                "compareColumns", tableMapping.getCompareColumns() == null ? "" : String.join(",", tableMapping.getCompareColumns()),
+                "whereClause", whereClause,
+                "additionalTargets", additionalTargets));
 
-                    JobExecution execution = jobLauncher.run(upsertJob, jobParameters);
-                    log.info("Job Status for targetDatabase: {}, targetSchema: {}, targetTable: {} -> {}", targetDatabaseName, targetSchema, tableMapping.getTargetTable(), execution.getStatus());
+        JobParametersBuilder jobParametersBuilder = new JobParametersBuilder()
+                .addString(TableProjectionListener.TABLE_KEY, tableKey)
+                .addString("sourceDatabase", sourceDatabaseName)
+                .addString("sourceSchema", tableMapping.getSourceSchema())
+                .addString("sourceTable", tableMapping.getSourceTable())
+                .addString("primaryKeys", primaryKeys)
+                .addString("targetDatabase", targetDatabaseName)
+                .addString("targetSchema", targetSchema)
+                .addString("targetTable", tableMapping.getTargetTable())
+                .addLong("time", System.currentTimeMillis());
+        // Lets the writers stop once the lease on the work item is lost
+        if (workItemId != null) {
+            jobParametersBuilder.addLong("workItemId", workItemId);
+        }
+        JobParameters jobParameters = jobParametersBuilder.toJobParameters();
+
+        log.info("Starting batch job for targetDatabase: {}, targetSchema: {}, targetTable: {}", targetDatabaseName, targetSchema, tableMapping.getTargetTable());
+
+        // Tables with several targets read the source once and fan the rows out to every target
+        JobExecution execution = jobLauncher.run(additionalTargets.isEmpty() ? upsertJob : fanOutJob, jobParameters);
+        log.info("Job Status for targetDatabase: {}, targetSchema: {}, targetTable: {} -> {} ({})", targetDatabaseName, targetSchema,
+                tableMapping.getTargetTable(), execution.getStatus(), execution.getExitStatus().getExitCode());
+        return execution;
+    }
+
+    private void runDistributed(List<TableConfig> tableConfigs,
+                                Map<TableMapping, TableSchemaValidator.ResolvedTable> resolvedTables) throws InterruptedException {
+        workItemCoordinator.initializeSchema();
+        if (!workItemCoordinator.isRunPlanned()) {
+            workItemCoordinator.planRun(planWorkItems(tableConfigs, resolvedTables));
+        }
+
+        while (true) {
+            Optional<WorkItemCoordinator.WorkItem> claimed = workItemCoordinator.claimNext();
+            if (claimed.isEmpty()) {
+                if (workItemCoordinator.isRunFinished()) {
+                    return;
                 }
+                // Remaining items are leased by other instances; wait for them to finish or for their leases to expire
+                Thread.sleep(workItemCoordinator.getPollSeconds() * 1000L);
+                continue;
             }
-        } catch (Exception e) {
-            log.error("Batch job execution failed", e);
+
+            WorkItemCoordinator.WorkItem workItem = claimed.get();
+            boolean succeeded = false;
+            try {
+                TableConfig tableConfig = tableConfigs.stream()
+                        .filter(config -> config.getSourceDatabase().equals(workItem.sourceDatabase()))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalStateException("Unknown source database " + workItem.sourceDatabase()));
+                TableMapping tableMapping = tableConfig.getTablesForChanges().stream()
+                        .filter(mapping -> mapping.getSourceSchema().equals(workItem.sourceSchema())
+                                && mapping.getSourceTable().equals(workItem.sourceTable())
+                                && mapping.getTargetSchema().equals(workItem.targetSchema())
+                                && mapping.getTargetTable().equals(workItem.targetTable()))
+                        .findFirst()
+                        .orElseThrow(() -> new IllegalStateException("Work item " + workItem.id() + " does not match table-update.json"));
+
+                JobExecution execution = runTable(workItem.sourceDatabase(), tableMapping, resolvedTables.get(tableMapping),
+                        rangeClause(tableMapping.getPrimaryKey().get(0), resolvedTables.get(tableMapping).keyType(),
+                                workItem.rangeStart(), workItem.rangeEnd()), workItem.id());
+                // A table whose additional targets partly failed completes, but its work item has to be retried
+                succeeded = execution.getStatus() == BatchStatus.COMPLETED && !hasFailedTargets(execution);
+            } catch (Exception e) {
+                log.error("Work item {} failed", workItem.id(), e);
+            } finally {
+                workItemCoordinator.complete(workItem, succeeded);
+            }
+        }
+    }
+
+    private boolean hasFailedTargets(JobExecution execution) {
+        String failedTargets = FanOutItemWriter.COMPLETED_WITH_FAILED_TARGETS.getExitCode();
+        return failedTargets.equals(execution.getExitStatus().getExitCode())
+                || execution.getStepExecutions().stream().anyMatch(step -> failedTargets.equals(step.getExitStatus().getExitCode()));
+    }
+
+    /**
+     * Splits every table into key ranges on its first primary key column. Tables that still need their
+     * initial bulk load are kept whole, since that load relies on a single ordered pass over the table.
+     */
+    private List<WorkItemCoordinator.WorkItem> planWorkItems(List<TableConfig> tableConfigs,
+                                                             Map<TableMapping, TableSchemaValidator.ResolvedTable> resolvedTables) {
+        List<WorkItemCoordinator.WorkItem> workItems = new ArrayList<>();
+        for (TableConfig tableConfig : tableConfigs) {
+            String sourceDatabaseName = tableConfig.getSourceDatabase();
+            String targetDatabaseName = sourceDatabaseName + "_bronze";
+            initializeBatchMetadata(targetDatabaseName);
+            DataSource sourceDataSource = dataSourceConfig.sourceDataSourceFor(sourceDatabaseName);
+            DataSource targetDataSource = dataSourceConfig.targetDataSourceFor(targetDatabaseName);
+            try {
+                planTableWorkItems(sourceDatabaseName, tableConfig.getTablesForChanges(), resolvedTables, new JdbcTemplate(sourceDataSource),
+                        new JdbcTemplate(targetDataSource), workItems);
+            } finally {
+                DataSourceConfig.closeDataSource(sourceDataSource);
+                DataSourceConfig.closeDataSource(targetDataSource);
+            }
+        }
+        return workItems;
+    }
+
+    private void planTableWorkItems(String sourceDatabaseName, List<TableMapping> tableMappings,
+                                    Map<TableMapping, TableSchemaValidator.ResolvedTable> resolvedTables, JdbcTemplate sourceJdbcTemplate,
+                                    JdbcTemplate targetJdbcTemplate, List<WorkItemCoordinator.WorkItem> workItems) {
+        for (TableMapping tableMapping : tableMappings) {
+            List<String> boundaries = List.of();
+            if (workItemCoordinator.getRangesPerTable() > 1
+                    && !InitialLoadDecider.needsInitialLoad(targetJdbcTemplate, tableMapping.getTargetSchema(), tableMapping.getTargetTable())) {
+                String key = "[" + tableMapping.getPrimaryKey().get(0) + "]";
+                String where = tableMapping.getWhereClause() == null || tableMapping.getWhereClause().isBlank()
+                        ? "" : " WHERE " + tableMapping.getWhereClause();
+                boundaries = sourceJdbcTemplate.queryForList(
+                        "SELECT " + boundToString("MAX(" + key + ")", resolvedTables.get(tableMapping).keyType()) + " FROM (SELECT " + key + ", NTILE(?) OVER (ORDER BY " + key + ") AS tile " +
+                                "FROM " + tableMapping.getSourceSchema() + "." + tableMapping.getSourceTable() + where + ") t " +
+                                "GROUP BY tile ORDER BY tile",
+                        String.class, workItemCoordinator.getRangesPerTable()).stream().distinct().toList();
+            }
+
+            workItems.addAll(splitIntoRanges(sourceDatabaseName, tableMapping, boundaries));
+        }
+    }
+
+    // (null, b1], (b1, b2], ... (bn-1, null) - the last range stays open for rows added after planning
+    static List<WorkItemCoordinator.WorkItem> splitIntoRanges(String sourceDatabaseName, TableMapping tableMapping, List<String> boundaries) {
+        List<WorkItemCoordinator.WorkItem> workItems = new ArrayList<>();
+        String rangeStart = null;
+        for (int i = 0; i < boundaries.size() - 1; i++) {
+            workItems.add(new WorkItemCoordinator.WorkItem(null, sourceDatabaseName, tableMapping.getSourceSchema(),
+                    tableMapping.getSourceTable(), tableMapping.getTargetSchema(), tableMapping.getTargetTable(),
+                    rangeStart, boundaries.get(i)));
+            rangeStart = boundaries.get(i);
+        }
+        workItems.add(new WorkItemCoordinator.WorkItem(null, sourceDatabaseName, tableMapping.getSourceSchema(),
+                tableMapping.getSourceTable(), tableMapping.getTargetSchema(), tableMapping.getTargetTable(),
+                rangeStart, null));
+        return workItems;
+    }
+
+    // Bounds are converted back to the key's declared type, so the key column itself is compared without a conversion
+    static String rangeClause(String keyColumn, String keyType, String rangeStart, String rangeEnd) {
+        String key = "[" + keyColumn + "]";
+        List<String> bounds = new ArrayList<>();
+        if (rangeStart != null) {
+            bounds.add(key + " > " + boundFromString(rangeStart, keyType));
+        }
+        if (rangeEnd != null) {
+            bounds.add(key + " <= " + boundFromString(rangeEnd, keyType));
         }
+        return String.join(" AND ", bounds);
+    }
+
+    static String boundToString(String expression, String keyType) {
+        Integer style = conversionStyle(keyType);
+        return "CONVERT(NVARCHAR(450), " + expression + (style == null ? "" : ", " + style) + ")";
+    }
+
+    static String boundFromString(String bound, String keyType) {
+        Integer style = conversionStyle(keyType);
+        return "CONVERT(" + keyType + ", N'" + bound.replace("'", "''") + "'" + (style == null ? "" : ", " + style) + ")";
+    }
+
+    // A style that round-trips the key type through text, or null where the default conversion already does
+    static Integer conversionStyle(String keyType) {
+        String typeName = keyType.contains("(") ? keyType.substring(0, keyType.indexOf('(')) : keyType;
+        return switch (typeName) {
+            case "date", "time", "datetime", "datetime2", "smalldatetime", "datetimeoffset" -> 126;
+            case "float", "real" -> 3;
+            case "money", "smallmoney" -> 2;
+            case "binary", "varbinary" -> 1;
+            default -> null;
+        };
+    }
+
+    private Map<TableMapping, TableSchemaValidator.ResolvedTable> validateTableMappings(List<TableConfig> tableConfigs) {
+        Map<TableMapping, TableSchemaValidator.ResolvedTable> resolvedTables = new IdentityHashMap<>();
+        for (TableConfig tableConfig : tableConfigs) {
+            DataSource sourceDataSource = dataSourceConfig.sourceDataSourceFor(tableConfig.getSourceDatabase());
+            DataSource targetDataSource = dataSourceConfig.targetDataSourceFor(tableConfig.getSourceDatabase() + "_bronze");
+            try {
+                JdbcTemplate sourceJdbcTemplate = new JdbcTemplate(sourceDataSource);
+                JdbcTemplate targetJdbcTemplate = new JdbcTemplate(targetDataSource);
+                for (TableMapping tableMapping : tableConfig.getTablesForChanges()) {
+                    resolvedTables.put(tableMapping, tableSchemaValidator.resolveColumns(tableConfig.getSourceDatabase(), tableMapping,
+                            sourceJdbcTemplate, targetJdbcTemplate));
+                }
+            } finally {
+                DataSourceConfig.closeDataSource(sourceDataSource);
+                DataSourceConfig.closeDataSource(targetDataSource);
+            }
+        }
+        return resolvedTables;
+    }
+
+    private void switchDatabases(String sourceDatabaseName, String targetDatabaseName) {
+        System.setProperty("spring.datasource.source.database", "database=" + sourceDatabaseName + ";" + "defaultSchema=dbo;");
+        System.setProperty("spring.datasource.target.database", "database=" + targetDatabaseName + ";" + "defaultSchema=dbo;");
     }
 
 //    @Scheduled(cron = "0 */2 * * * *")
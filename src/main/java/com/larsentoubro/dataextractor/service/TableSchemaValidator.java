@@ -0,0 +1,149 @@
+package com.larsentoubro.dataextractor.service;
+
+import com.larsentoubro.dataextractor.config.DataSourceConfig;
+import com.larsentoubro.dataextractor.jsondata.TableMapping;
+import com.larsentoubro.dataextractor.jsondata.TargetMapping;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.util.*;
+import java.util.stream.Collectors;
+
+@Slf4j
+@Component
+public class TableSchemaValidator {
+
+    private static final String LOB_COLUMNS_SQL = "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS " +
+            "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? AND CHARACTER_MAXIMUM_LENGTH = -1 " +
+            "AND DATA_TYPE IN ('varchar', 'nvarchar', 'varbinary')";
+
+    private static final String COLUMNS_SQL = "SELECT COLUMN_NAME FROM INFORMATION_SCHEMA.COLUMNS " +
+            "WHERE TABLE_SCHEMA = ? AND TABLE_NAME = ? ORDER BY ORDINAL_POSITION";
+
+    private final DataSourceConfig dataSourceConfig;
+
+    public TableSchemaValidator(DataSourceConfig dataSourceConfig) {
+        this.dataSourceConfig = dataSourceConfig;
+    }
+
+    private static final String KEY_TYPE_SQL = "SELECT TYPE_NAME(system_type_id) AS type_name, max_length, precision, scale " +
+            "FROM sys.columns WHERE object_id = OBJECT_ID(?) AND name = ?";
+
+    /**
+     * keyType is the declared type of the first primary key column, e.g. nvarchar(50) or decimal(18,2).
+     */
+    public record ResolvedTable(List<String> columns, List<String> lobColumns, String keyType) {
+    }
+
+    /**
+     * Resolves the projected column list of a mapping against the source table and checks that
+     * the included, excluded, compared and key columns and the where clause are valid on both sides.
+     * The templates must point at the mapping's source and target databases.
+     */
+    public ResolvedTable resolveColumns(String sourceDatabase, TableMapping tableMapping,
+                                        JdbcTemplate sourceJdbcTemplate, JdbcTemplate targetJdbcTemplate) {
+        String sourceName = tableMapping.getSourceSchema() + "." + tableMapping.getSourceTable();
+        String targetName = tableMapping.getTargetSchema() + "." + tableMapping.getTargetTable();
+
+        List<String> sourceColumns = sourceJdbcTemplate.queryForList(COLUMNS_SQL, String.class,
+                tableMapping.getSourceSchema(), tableMapping.getSourceTable());
+        if (sourceColumns.isEmpty()) {
+            throw new IllegalArgumentException("Source table " + sourceName + " not found or has no columns");
+        }
+
+        List<String> includeColumns = Optional.ofNullable(tableMapping.getIncludeColumns()).orElse(List.of());
+        List<String> excludeColumns = Optional.ofNullable(tableMapping.getExcludeColumns()).orElse(List.of());
+        List<String> compareColumns = Optional.ofNullable(tableMapping.getCompareColumns()).orElse(List.of());
+
+        requireColumns(sourceName, sourceColumns, "primaryKey", tableMapping.getPrimaryKey());
+        requireColumns(sourceName, sourceColumns, "includeColumns", includeColumns);
+        requireColumns(sourceName, sourceColumns, "excludeColumns", excludeColumns);
+
+        Set<String> excluded = caseInsensitiveSet(excludeColumns);
+        for (String primaryKey : tableMapping.getPrimaryKey()) {
+            if (excluded.contains(primaryKey)) {
+                throw new IllegalArgumentException("Primary key column " + primaryKey + " of " + sourceName + " cannot be excluded");
+            }
+        }
+
+        Set<String> included = caseInsensitiveSet(includeColumns);
+        included.addAll(tableMapping.getPrimaryKey());
+        List<String> columns = sourceColumns.stream()
+                .filter(column -> includeColumns.isEmpty() || included.contains(column))
+                .filter(column -> !excluded.contains(column))
+                .collect(Collectors.toList());
+
+        requireColumns(sourceName + " (projected)", columns, "compareColumns", compareColumns);
+
+        List<String> targetColumns = targetJdbcTemplate.queryForList(COLUMNS_SQL, String.class,
+                tableMapping.getTargetSchema(), tableMapping.getTargetTable());
+        requireColumns(targetName, targetColumns, "projected columns", columns);
+
+        for (TargetMapping target : Optional.ofNullable(tableMapping.getAdditionalTargets()).orElse(List.of())) {
+            String databaseName = target.resolveTargetDatabase(sourceDatabase);
+            DataSource dataSource = dataSourceConfig.targetDataSourceFor(databaseName);
+            try {
+                List<String> additionalTargetColumns = new JdbcTemplate(dataSource).queryForList(COLUMNS_SQL, String.class,
+                        target.getTargetSchema(), target.getTargetTable());
+                requireColumns(databaseName + "." + target.getTargetSchema() + "." + target.getTargetTable(),
+                        additionalTargetColumns, "projected columns", columns);
+            } finally {
+                DataSourceConfig.closeDataSource(dataSource);
+            }
+        }
+
+        String whereClause = tableMapping.getWhereClause();
+        if (whereClause != null && !whereClause.isBlank()) {
+            // The clause also filters the target fetch, where only projected columns are written. Running it over a
+            // derived table of the projected columns makes any other column reference fail as an invalid column.
+            String selectList = columns.stream().map(c -> "[" + c + "]").collect(Collectors.joining(", "));
+            try {
+                sourceJdbcTemplate.queryForList("SELECT TOP 0 * FROM (SELECT " + selectList + " FROM " + sourceName + ") AS projected WHERE " + whereClause);
+                targetJdbcTemplate.queryForList("SELECT TOP 0 * FROM (SELECT " + selectList + " FROM " + targetName + ") AS projected WHERE " + whereClause);
+            } catch (DataAccessException e) {
+                throw new IllegalArgumentException("whereClause of " + sourceName + " must be valid on both sides and may only reference " +
+                        "projected columns: " + whereClause, e);
+            }
+        }
+
+        Set<String> projected = caseInsensitiveSet(columns);
+        List<String> lobColumns = sourceJdbcTemplate.queryForList(LOB_COLUMNS_SQL, String.class,
+                        tableMapping.getSourceSchema(), tableMapping.getSourceTable()).stream()
+                .filter(projected::contains)
+                .collect(Collectors.toList());
+
+        String keyType = sourceJdbcTemplate.queryForObject(KEY_TYPE_SQL, (rs, rowNum) -> declaredType(rs.getString("type_name"),
+                rs.getInt("max_length"), rs.getInt("precision"), rs.getInt("scale")), sourceName, tableMapping.getPrimaryKey().get(0));
+
+        log.info("Resolved {} of {} columns for {} (lob: {}, compare: {}, where: {}, key type: {})", columns.size(), sourceColumns.size(),
+                sourceName, lobColumns, compareColumns.isEmpty() ? "all" : compareColumns, whereClause == null ? "none" : whereClause, keyType);
+        return new ResolvedTable(columns, lobColumns, keyType);
+    }
+
+    static String declaredType(String typeName, int maxLength, int precision, int scale) {
+        return switch (typeName) {
+            case "char", "varchar", "binary", "varbinary" -> typeName + "(" + (maxLength == -1 ? "max" : maxLength) + ")";
+            case "nchar", "nvarchar" -> typeName + "(" + (maxLength == -1 ? "max" : maxLength / 2) + ")";
+            case "decimal", "numeric" -> typeName + "(" + precision + "," + scale + ")";
+            case "datetime2", "datetimeoffset", "time" -> typeName + "(" + scale + ")";
+            default -> typeName;
+        };
+    }
+
+    private void requireColumns(String tableName, List<String> available, String property, List<String> requested) {
+        Set<String> availableSet = caseInsensitiveSet(available);
+        List<String> missing = requested.stream().filter(column -> !availableSet.contains(column)).collect(Collectors.toList());
+        if (!missing.isEmpty()) {
+            throw new IllegalArgumentException("Columns " + missing + " in " + property + " do not exist in " + tableName);
+        }
+    }
+
+    private Set<String> caseInsensitiveSet(Collection<String> columns) {
+        Set<String> set = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+        set.addAll(columns);
+        return set;
+    }
+}
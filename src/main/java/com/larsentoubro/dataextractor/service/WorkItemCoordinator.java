@@ -0,0 +1,247 @@
+package com.larsentoubro.dataextractor.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Lets several extractor instances share one run through the BATCH_WORK_* tables of the batch metadata
+ * database. Units of work are claimed under a lease that is renewed by a heartbeat while the unit runs;
+ * a unit whose lease expired, because its owner died, can be claimed by any other instance.
+ */
+@Slf4j
+@Component
+public class WorkItemCoordinator {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_CLAIMED = "CLAIMED";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    public record WorkItem(Long id, String sourceDatabase, String sourceSchema, String sourceTable,
+                           String targetSchema, String targetTable, String rangeStart, String rangeEnd) {
+    }
+
+    private final DataSource metadataDataSource;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "work-item-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Long, ScheduledFuture<?>> heartbeats = new ConcurrentHashMap<>();
+    private final Map<Long, Long> leaseDeadlines = new ConcurrentHashMap<>();
+    private final Set<Long> lostLeases = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    private final String instanceId;
+
+    @Getter
+    @Value("${dataextractor.distributed.enabled:false}")
+    private boolean enabled;
+
+    @Getter
+    @Value("${dataextractor.distributed.run-id:}")
+    private String runId;
+
+    @Getter
+    @Value("${dataextractor.distributed.ranges-per-table:1}")
+    private int rangesPerTable;
+
+    @Getter
+    @Value("${dataextractor.distributed.poll-seconds:10}")
+    private int pollSeconds;
+
+    @Value("${dataextractor.distributed.lease-seconds:120}")
+    private int leaseSeconds;
+
+    @Value("${dataextractor.distributed.max-attempts:3}")
+    private int maxAttempts;
+
+    public WorkItemCoordinator(@Qualifier("targetDataSource") DataSource metadataDataSource) {
+        this.metadataDataSource = metadataDataSource;
+        this.jdbcTemplate = new JdbcTemplate(metadataDataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(metadataDataSource));
+        this.instanceId = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+
+    public void initializeSchema() {
+        if (runId.isBlank()) {
+            throw new IllegalStateException("dataextractor.distributed.run-id must be set when distributed mode is enabled");
+        }
+
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator();
+        populator.addScript(new ClassPathResource("create-batch-tables.sql"));
+        populator.setSeparator("GO");
+        try (Connection connection = metadataDataSource.getConnection()) {
+            populator.populate(connection);
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to initialize work item tables", e);
+        }
+        log.info("Instance {} joining distributed run {}", instanceId, runId);
+    }
+
+    public boolean isRunPlanned() {
+        Integer runs = jdbcTemplate.queryForObject("SELECT COUNT(1) FROM dbo.BATCH_WORK_RUN WHERE RUN_ID = ?", Integer.class, runId);
+        return runs != null && runs > 0;
+    }
+
+    /**
+     * Registers the run and its work items in one transaction. Instances racing to plan the same run
+     * block on the run key, and all but the first fail with a duplicate key and reuse its plan.
+     */
+    public boolean planRun(List<WorkItem> workItems) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                jdbcTemplate.update("INSERT INTO dbo.BATCH_WORK_RUN (RUN_ID, STATUS, TOTAL_ITEMS, PLANNED_BY, CREATE_TIME) " +
+                        "VALUES (?, ?, ?, ?, CURRENT_TIMESTAMP)", runId, STATUS_PENDING, workItems.size(), instanceId);
+                jdbcTemplate.batchUpdate("INSERT INTO dbo.BATCH_WORK_ITEM (RUN_ID, SOURCE_DATABASE, SOURCE_SCHEMA, SOURCE_TABLE, " +
+                                "TARGET_SCHEMA, TARGET_TABLE, RANGE_START, RANGE_END, STATUS, ATTEMPTS, LAST_UPDATED) " +
+                                "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 0, CURRENT_TIMESTAMP)",
+                        workItems.stream().map(item -> new Object[]{runId, item.sourceDatabase(), item.sourceSchema(),
+                                item.sourceTable(), item.targetSchema(), item.targetTable(), item.rangeStart(),
+                                item.rangeEnd(), STATUS_PENDING}).toList());
+            });
+            log.info("Planned distributed run {} with {} work items", runId, workItems.size());
+            return true;
+        } catch (DuplicateKeyException e) {
+            log.info("Distributed run {} was already planned by another instance", runId);
+            return false;
+        }
+    }
+
+    public Optional<WorkItem> claimNext() {
+        List<Long> candidates = jdbcTemplate.queryForList(
+                "SELECT WORK_ITEM_ID FROM dbo.BATCH_WORK_ITEM WHERE RUN_ID = ? AND ATTEMPTS < ? " +
+                        "AND (STATUS = ? OR (STATUS = ? AND LEASE_EXPIRES < CURRENT_TIMESTAMP)) ORDER BY WORK_ITEM_ID",
+                Long.class, runId, maxAttempts, STATUS_PENDING, STATUS_CLAIMED);
+
+        for (Long candidate : candidates) {
+            long claimStarted = System.nanoTime();
+            // The status and lease are re-checked so that only one instance wins a contended item
+            int claimed = jdbcTemplate.update(
+                    "UPDATE dbo.BATCH_WORK_ITEM SET STATUS = ?, OWNER = ?, ATTEMPTS = ATTEMPTS + 1, " +
+                            "LEASE_EXPIRES = DATEADD(SECOND, ?, CURRENT_TIMESTAMP), LAST_UPDATED = CURRENT_TIMESTAMP " +
+                            "WHERE WORK_ITEM_ID = ? AND ATTEMPTS < ? " +
+                            "AND (STATUS = ? OR (STATUS = ? AND LEASE_EXPIRES < CURRENT_TIMESTAMP))",
+                    STATUS_CLAIMED, instanceId, leaseSeconds, candidate, maxAttempts, STATUS_PENDING, STATUS_CLAIMED);
+            if (claimed == 1) {
+                WorkItem workItem = jdbcTemplate.queryForObject(
+                        "SELECT WORK_ITEM_ID, SOURCE_DATABASE, SOURCE_SCHEMA, SOURCE_TABLE, TARGET_SCHEMA, TARGET_TABLE, " +
+                                "RANGE_START, RANGE_END FROM dbo.BATCH_WORK_ITEM WHERE WORK_ITEM_ID = ?",
+                        (rs, rowNum) -> new WorkItem(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                rs.getString(5), rs.getString(6), rs.getString(7), rs.getString(8)),
+                        candidate);
+                leaseDeadlines.put(candidate, claimStarted + TimeUnit.SECONDS.toNanos(leaseSeconds));
+                startHeartbeat(candidate);
+                log.info("Instance {} claimed work item {}", instanceId, workItem);
+                return Optional.of(workItem);
+            }
+        }
+        return Optional.empty();
+    }
+
+    public void complete(WorkItem workItem, boolean succeeded) {
+        ScheduledFuture<?> heartbeat = heartbeats.remove(workItem.id());
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+        }
+        leaseDeadlines.remove(workItem.id());
+        lostLeases.remove(workItem.id());
+
+        // A failed item goes back to the pool until it runs out of attempts
+        String statusExpression = succeeded ? "?" : "CASE WHEN ATTEMPTS >= ? THEN '" + STATUS_FAILED + "' ELSE '" + STATUS_PENDING + "' END";
+        int updated = jdbcTemplate.update(
+                "UPDATE dbo.BATCH_WORK_ITEM SET STATUS = " + statusExpression + ", " +
+                        "LEASE_EXPIRES = NULL, LAST_UPDATED = CURRENT_TIMESTAMP " +
+                        "WHERE WORK_ITEM_ID = ? AND OWNER = ? AND STATUS = ?",
+                succeeded ? STATUS_COMPLETED : maxAttempts, workItem.id(), instanceId, STATUS_CLAIMED);
+        if (updated == 0) {
+            log.warn("Instance {} lost the lease on work item {} before completing it", instanceId, workItem.id());
+        }
+    }
+
+    /**
+     * Returns true once no work item of the run is pending or leased, and records the outcome of the run.
+     */
+    public boolean isRunFinished() {
+        // Items that are still claimable, or leased by a live instance, keep the run open
+        Integer outstanding = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM dbo.BATCH_WORK_ITEM WHERE RUN_ID = ? " +
+                        "AND ((STATUS = ? AND ATTEMPTS < ?) OR (STATUS = ? AND (ATTEMPTS < ? OR LEASE_EXPIRES >= CURRENT_TIMESTAMP)))",
+                Integer.class, runId, STATUS_PENDING, maxAttempts, STATUS_CLAIMED, maxAttempts);
+        if (outstanding != null && outstanding > 0) {
+            return false;
+        }
+
+        Integer failed = jdbcTemplate.queryForObject(
+                "SELECT COUNT(1) FROM dbo.BATCH_WORK_ITEM WHERE RUN_ID = ? AND STATUS <> ?",
+                Integer.class, runId, STATUS_COMPLETED);
+        String runStatus = failed == null || failed == 0 ? STATUS_COMPLETED : STATUS_FAILED;
+        jdbcTemplate.update("UPDATE dbo.BATCH_WORK_RUN SET STATUS = ?, END_TIME = CURRENT_TIMESTAMP WHERE RUN_ID = ? AND END_TIME IS NULL",
+                runStatus, runId);
+        log.info("Distributed run {} finished with status {} ({} work items not completed)", runId, runStatus, failed);
+        return true;
+    }
+
+    /**
+     * Fails the caller once the lease on a work item was taken over, or could not be renewed before it expired,
+     * since another instance may be running the same item by then. Writers call this before every write.
+     */
+    public void checkLease(Long workItemId) {
+        if (workItemId == null) {
+            return;
+        }
+        Long deadline = leaseDeadlines.get(workItemId);
+        if (lostLeases.contains(workItemId) || deadline == null || System.nanoTime() - deadline > 0) {
+            throw new IllegalStateException("Instance " + instanceId + " no longer holds the lease on work item " + workItemId);
+        }
+    }
+
+    private void startHeartbeat(Long workItemId) {
+        long period = Math.max(1, leaseSeconds / 3);
+        heartbeats.put(workItemId, heartbeatExecutor.scheduleAtFixedRate(() -> {
+            try {
+                long renewStarted = System.nanoTime();
+                int renewed = jdbcTemplate.update(
+                        "UPDATE dbo.BATCH_WORK_ITEM SET LEASE_EXPIRES = DATEADD(SECOND, ?, CURRENT_TIMESTAMP) " +
+                                "WHERE WORK_ITEM_ID = ? AND OWNER = ? AND STATUS = ?",
+                        leaseSeconds, workItemId, instanceId, STATUS_CLAIMED);
+                if (renewed == 0) {
+                    lostLeases.add(workItemId);
+                    log.error("Lease on work item {} was taken over by another instance, stopping its writes", workItemId);
+                } else {
+                    leaseDeadlines.put(workItemId, renewStarted + TimeUnit.SECONDS.toNanos(leaseSeconds));
+                }
+            } catch (DataAccessException e) {
+                log.warn("Failed to renew lease on work item {}", workItemId, e);
+            }
+        }, period, period, TimeUnit.SECONDS));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        heartbeatExecutor.shutdownNow();
+    }
+}
@@ -101,3 +101,53 @@ GO
 IF NOT EXISTS (SELECT 1 FROM sys.sequences WHERE name = 'BATCH_JOB_SEQ')
     CREATE SEQUENCE dbo.BATCH_JOB_SEQ START WITH 0 MINVALUE 0 MAXVALUE 9223372036854775807 NO CACHE NO CYCLE;
 GO
+
+-- Check if BATCH_INITIAL_LOAD table exists
+IF NOT EXISTS (SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'BATCH_INITIAL_LOAD')
+    CREATE TABLE dbo.BATCH_INITIAL_LOAD  (
+        TARGET_SCHEMA VARCHAR(128) NOT NULL,
+        TARGET_TABLE VARCHAR(128) NOT NULL,
+        STATUS VARCHAR(10) NOT NULL,
+        DISABLED_INDEXES NVARCHAR(MAX) NULL,
+        LAST_UPDATED DATETIME NULL,
+        CONSTRAINT BATCH_INITIAL_LOAD_PK PRIMARY KEY (TARGET_SCHEMA, TARGET_TABLE)
+    );
+GO
+
+-- Check if BATCH_WORK_RUN table exists
+IF NOT EXISTS (SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'BATCH_WORK_RUN')
+    CREATE TABLE dbo.BATCH_WORK_RUN  (
+        RUN_ID VARCHAR(100) NOT NULL PRIMARY KEY,
+        STATUS VARCHAR(10) NOT NULL,
+        TOTAL_ITEMS INT NOT NULL,
+        PLANNED_BY VARCHAR(200) NULL,
+        CREATE_TIME DATETIME NOT NULL,
+        END_TIME DATETIME NULL
+    );
+GO
+
+-- Check if BATCH_WORK_ITEM table exists
+IF NOT EXISTS (SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = 'BATCH_WORK_ITEM')
+    CREATE TABLE dbo.BATCH_WORK_ITEM  (
+        WORK_ITEM_ID BIGINT IDENTITY(1,1) NOT NULL PRIMARY KEY,
+        RUN_ID VARCHAR(100) NOT NULL,
+        SOURCE_DATABASE VARCHAR(128) NOT NULL,
+        SOURCE_SCHEMA VARCHAR(128) NOT NULL,
+        SOURCE_TABLE VARCHAR(128) NOT NULL,
+        TARGET_SCHEMA VARCHAR(128) NOT NULL,
+        TARGET_TABLE VARCHAR(128) NOT NULL,
+        RANGE_START NVARCHAR(450) NULL,
+        RANGE_END NVARCHAR(450) NULL,
+        STATUS VARCHAR(10) NOT NULL,
+        OWNER VARCHAR(200) NULL,
+        LEASE_EXPIRES DATETIME NULL,
+        ATTEMPTS INT NOT NULL,
+        LAST_UPDATED DATETIME NULL,
+        CONSTRAINT BATCH_WORK_ITEM_RUN_FK FOREIGN KEY (RUN_ID)
+        REFERENCES BATCH_WORK_RUN(RUN_ID)
+    );
+GO
+
+IF NOT EXISTS (SELECT 1 FROM sys.indexes WHERE name = 'BATCH_WORK_ITEM_RUN_IX')
+    CREATE INDEX BATCH_WORK_ITEM_RUN_IX ON dbo.BATCH_WORK_ITEM (RUN_ID, STATUS);
+GO
@@ -0,0 +1,34 @@
+package com.larsentoubro.dataextractor.batch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InitialLoadTaskletTests {
+
+	@Test
+	void singleColumnKeyResumesAfterLastKey() {
+		assertEquals("((s.[Id] > ?))", InitialLoadTasklet.buildKeysetPredicate(List.of("Id")));
+		assertArrayEquals(new Object[]{42}, InitialLoadTasklet.buildKeysetParameters(1, new Object[]{42}));
+	}
+
+	@Test
+	void twoColumnKeyResumesInSortOrder() {
+		assertEquals("((s.[SiteId] > ?) OR (s.[SiteId] = ? AND s.[DeviceId] > ?))",
+				InitialLoadTasklet.buildKeysetPredicate(List.of("SiteId", "DeviceId")));
+		assertArrayEquals(new Object[]{7, 7, 100},
+				InitialLoadTasklet.buildKeysetParameters(2, new Object[]{7, 100}));
+	}
+
+	@Test
+	void threeColumnKeyResumesInSortOrder() {
+		assertEquals("((s.[SiteId] > ?) OR (s.[SiteId] = ? AND s.[DeviceId] > ?) " +
+						"OR (s.[SiteId] = ? AND s.[DeviceId] = ? AND s.[ReadingId] > ?))",
+				InitialLoadTasklet.buildKeysetPredicate(List.of("SiteId", "DeviceId", "ReadingId")));
+		assertArrayEquals(new Object[]{7, 7, 100, 7, 100, "R-9"},
+				InitialLoadTasklet.buildKeysetParameters(3, new Object[]{7, 100, "R-9"}));
+	}
+}
@@ -0,0 +1,68 @@
+package com.larsentoubro.dataextractor.batch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.batch.repeat.RepeatContext;
+import org.springframework.batch.repeat.support.RepeatSynchronizationManager;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LobByteBudgetCompletionPolicyTests {
+
+	@AfterEach
+	void tearDown() {
+		RepeatSynchronizationManager.clear();
+	}
+
+	@Test
+	void completesAfterChunkSizeWithoutLobs() {
+		LobByteBudgetCompletionPolicy policy = new LobByteBudgetCompletionPolicy(3, 1000);
+		RepeatContext context = start(policy);
+
+		for (int i = 0; i < 2; i++) {
+			read(policy, context, Map.of("Id", i));
+		}
+		assertFalse(policy.isComplete(context));
+
+		read(policy, context, Map.of("Id", 2));
+		assertTrue(policy.isComplete(context));
+	}
+
+	@Test
+	void completesEarlyOnceLobBytesReachBudget() {
+		LobByteBudgetCompletionPolicy policy = new LobByteBudgetCompletionPolicy(100, 1000);
+		RepeatContext context = start(policy);
+
+		read(policy, context, Map.of("Id", 1, "Payload", new LobDigest("aa", 600)));
+		assertFalse(policy.isComplete(context));
+
+		read(policy, context, Map.of("Id", 2, "Payload", new LobDigest("bb", 300), "Notes", new LobDigest("cc", 100)));
+		assertTrue(policy.isComplete(context));
+	}
+
+	@Test
+	void budgetStartsOverForEveryChunk() {
+		LobByteBudgetCompletionPolicy policy = new LobByteBudgetCompletionPolicy(100, 1000);
+		RepeatContext first = start(policy);
+		read(policy, first, Map.of("Payload", new LobDigest("aa", 1500)));
+		assertTrue(policy.isComplete(first));
+
+		RepeatContext second = start(policy);
+		read(policy, second, Map.of("Payload", new LobDigest("bb", 500)));
+		assertFalse(policy.isComplete(second));
+	}
+
+	private RepeatContext start(LobByteBudgetCompletionPolicy policy) {
+		RepeatContext context = policy.start(null);
+		RepeatSynchronizationManager.register(context);
+		return context;
+	}
+
+	private void read(LobByteBudgetCompletionPolicy policy, RepeatContext context, Map<String, Object> item) {
+		policy.afterRead(item);
+		policy.update(context);
+	}
+}
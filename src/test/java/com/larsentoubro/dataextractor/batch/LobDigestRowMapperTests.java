@@ -0,0 +1,61 @@
+package com.larsentoubro.dataextractor.batch;
+
+import org.junit.jupiter.api.Test;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LobDigestRowMapperTests {
+
+	@Test
+	void selectClauseHashesOnlyLobColumns() {
+		assertEquals("[Id], HASHBYTES('SHA2_256', [Payload]) AS [Payload], DATALENGTH([Payload]) AS [Payload__length], [Name]",
+				LobDigestRowMapper.selectClause(List.of("Id", "Payload", "Name"), List.of("payload")));
+	}
+
+	@Test
+	void selectClauseWithoutLobColumnsSelectsColumnsAsTheyAre() {
+		assertEquals("[Id], [Name]", LobDigestRowMapper.selectClause(List.of("Id", "Name"), List.of()));
+	}
+
+	@Test
+	void mapRowReplacesHashAndLengthWithDigest() throws SQLException {
+		ResultSet rs = resultSet(new String[]{"Id", "Payload", "Payload__length"}, new Object[]{7, new byte[]{0x0a, (byte) 0xff}, 2048L});
+
+		Map<String, Object> row = new LobDigestRowMapper(List.of("Payload")).mapRow(rs, 0);
+
+		assertEquals(7, row.get("Id"));
+		assertEquals(new LobDigest("0aff", 2048), row.get("Payload"));
+		assertFalse(row.containsKey("Payload__length"));
+	}
+
+	@Test
+	void mapRowKeepsNullLobAsNull() throws SQLException {
+		ResultSet rs = resultSet(new String[]{"Id", "Payload", "Payload__length"}, new Object[]{7, null, null});
+
+		Map<String, Object> row = new LobDigestRowMapper(List.of("Payload")).mapRow(rs, 0);
+
+		assertTrue(row.containsKey("Payload"));
+		assertNull(row.get("Payload"));
+		assertFalse(row.containsKey("Payload__length"));
+	}
+
+	private ResultSet resultSet(String[] labels, Object[] values) throws SQLException {
+		ResultSet rs = mock(ResultSet.class);
+		ResultSetMetaData metaData = mock(ResultSetMetaData.class);
+		when(rs.getMetaData()).thenReturn(metaData);
+		when(metaData.getColumnCount()).thenReturn(labels.length);
+		for (int i = 0; i < labels.length; i++) {
+			when(metaData.getColumnLabel(i + 1)).thenReturn(labels[i]);
+			when(rs.getObject(i + 1)).thenReturn(values[i]);
+		}
+		return rs;
+	}
+}
@@ -0,0 +1,115 @@
+package com.larsentoubro.dataextractor.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import java.time.Duration;
+
+import static org.mockito.Mockito.*;
+
+class StepProgressThrottlingInterceptorTests {
+
+	private final JobRepository delegate = mock(JobRepository.class);
+
+	@Test
+	void firstWriteOfRunningStepGoesThrough() {
+		JobRepository jobRepository = throttled(Duration.ofHours(1));
+		StepExecution stepExecution = stepExecution(BatchStatus.STARTED);
+
+		jobRepository.update(stepExecution);
+		jobRepository.updateExecutionContext(stepExecution);
+
+		verify(delegate).update(stepExecution);
+		verify(delegate).updateExecutionContext(stepExecution);
+	}
+
+	@Test
+	void writesWithinIntervalAreDropped() {
+		JobRepository jobRepository = throttled(Duration.ofHours(1));
+		StepExecution stepExecution = stepExecution(BatchStatus.STARTED);
+
+		for (int i = 0; i < 5; i++) {
+			jobRepository.update(stepExecution);
+			jobRepository.updateExecutionContext(stepExecution);
+		}
+
+		verify(delegate, times(1)).update(stepExecution);
+		verify(delegate, times(1)).updateExecutionContext(stepExecution);
+	}
+
+	@Test
+	void oneWritePerIntervalGoesThrough() throws InterruptedException {
+		JobRepository jobRepository = throttled(Duration.ofMillis(200));
+		StepExecution stepExecution = stepExecution(BatchStatus.STARTED);
+
+		jobRepository.update(stepExecution);
+		jobRepository.update(stepExecution);
+		Thread.sleep(300);
+		jobRepository.update(stepExecution);
+		jobRepository.update(stepExecution);
+
+		verify(delegate, times(2)).update(stepExecution);
+	}
+
+	@Test
+	void writesAfterStepFinishedAlwaysGoThrough() {
+		JobRepository jobRepository = throttled(Duration.ofHours(1));
+		StepExecution stepExecution = stepExecution(BatchStatus.STARTED);
+		jobRepository.update(stepExecution);
+
+		stepExecution.setStatus(BatchStatus.COMPLETED);
+		jobRepository.updateExecutionContext(stepExecution);
+		jobRepository.update(stepExecution);
+		jobRepository.update(stepExecution);
+
+		verify(delegate, times(3)).update(stepExecution);
+		verify(delegate).updateExecutionContext(stepExecution);
+	}
+
+	@Test
+	void stepsAreThrottledSeparately() {
+		JobRepository jobRepository = throttled(Duration.ofHours(1));
+		StepExecution first = stepExecution(BatchStatus.STARTED);
+		StepExecution second = stepExecution(BatchStatus.STARTED);
+		second.setId(2L);
+
+		jobRepository.update(first);
+		jobRepository.update(second);
+
+		verify(delegate).update(first);
+		verify(delegate).update(second);
+	}
+
+	@Test
+	void jobExecutionWritesAreNeverTouched() {
+		JobRepository jobRepository = throttled(Duration.ofHours(1));
+		JobExecution jobExecution = new JobExecution(1L);
+		jobExecution.setStatus(BatchStatus.STARTED);
+
+		jobRepository.update(jobExecution);
+		jobRepository.update(jobExecution);
+		jobRepository.updateExecutionContext(jobExecution);
+		jobRepository.updateExecutionContext(jobExecution);
+
+		verify(delegate, times(2)).update(jobExecution);
+		verify(delegate, times(2)).updateExecutionContext(jobExecution);
+	}
+
+	private JobRepository throttled(Duration flushInterval) {
+		ProxyFactory proxyFactory = new ProxyFactory(delegate);
+		proxyFactory.addInterface(JobRepository.class);
+		proxyFactory.addAdvice(new StepProgressThrottlingInterceptor(flushInterval));
+		return (JobRepository) proxyFactory.getProxy();
+	}
+
+	private StepExecution stepExecution(BatchStatus status) {
+		StepExecution stepExecution = new StepExecution("upsertStep", new JobExecution(1L));
+		stepExecution.setId(1L);
+		stepExecution.setStatus(status);
+		return stepExecution;
+	}
+}
@@ -0,0 +1,77 @@
+package com.larsentoubro.dataextractor.service;
+
+import com.larsentoubro.dataextractor.jsondata.TableMapping;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class DataExtractorServiceTests {
+
+	@Test
+	void rangeClauseBoundsBothEnds() {
+		assertEquals("[Id] > CONVERT(int, N'10') AND [Id] <= CONVERT(int, N'20')",
+				DataExtractorService.rangeClause("Id", "int", "10", "20"));
+	}
+
+	@Test
+	void rangeClauseLeavesOpenEndsUnbounded() {
+		assertEquals("[Id] <= CONVERT(int, N'10')", DataExtractorService.rangeClause("Id", "int", null, "10"));
+		assertEquals("[Id] > CONVERT(int, N'90')", DataExtractorService.rangeClause("Id", "int", "90", null));
+		assertEquals("", DataExtractorService.rangeClause("Id", "int", null, null));
+	}
+
+	@Test
+	void rangeClauseEscapesQuotes() {
+		assertEquals("[Code] > CONVERT(varchar(20), N'O''Brien')",
+				DataExtractorService.rangeClause("Code", "varchar(20)", "O'Brien", null));
+	}
+
+	@Test
+	void boundsUseStyleThatRoundTripsTheKeyType() {
+		assertEquals("CONVERT(NVARCHAR(450), MAX([Id]), 3)", DataExtractorService.boundToString("MAX([Id])", "float"));
+		assertEquals("CONVERT(float, N'1.5E+00', 3)", DataExtractorService.boundFromString("1.5E+00", "float"));
+		assertEquals("CONVERT(datetime2(7), N'2024-01-31T10:00:00', 126)",
+				DataExtractorService.boundFromString("2024-01-31T10:00:00", "datetime2(7)"));
+		assertEquals("CONVERT(varbinary(16), N'0x0A0B', 1)", DataExtractorService.boundFromString("0x0A0B", "varbinary(16)"));
+		assertEquals("CONVERT(NVARCHAR(450), MAX([Id]))", DataExtractorService.boundToString("MAX([Id])", "bigint"));
+	}
+
+	@Test
+	void boundariesSplitTableIntoAdjacentRanges() {
+		List<WorkItemCoordinator.WorkItem> workItems = DataExtractorService.splitIntoRanges("IOT_STORE", mapping(),
+				List.of("100", "200", "300"));
+
+		assertEquals(3, workItems.size());
+		assertNull(workItems.get(0).rangeStart());
+		assertEquals("100", workItems.get(0).rangeEnd());
+		assertEquals("100", workItems.get(1).rangeStart());
+		assertEquals("200", workItems.get(1).rangeEnd());
+		// The highest boundary is dropped so that rows added after planning still fall into the last range
+		assertEquals("200", workItems.get(2).rangeStart());
+		assertNull(workItems.get(2).rangeEnd());
+	}
+
+	@Test
+	void tableWithoutBoundariesIsOneRange() {
+		List<WorkItemCoordinator.WorkItem> workItems = DataExtractorService.splitIntoRanges("IOT_STORE", mapping(), List.of());
+
+		assertEquals(1, workItems.size());
+		assertNull(workItems.get(0).rangeStart());
+		assertNull(workItems.get(0).rangeEnd());
+		assertEquals("IOT_STORE", workItems.get(0).sourceDatabase());
+		assertEquals("Devices", workItems.get(0).targetTable());
+	}
+
+	private TableMapping mapping() {
+		TableMapping tableMapping = new TableMapping();
+		tableMapping.setSourceSchema("dbo");
+		tableMapping.setSourceTable("Devices");
+		tableMapping.setTargetSchema("dbo");
+		tableMapping.setTargetTable("Devices");
+		tableMapping.setPrimaryKey(List.of("Id"));
+		return tableMapping;
+	}
+}
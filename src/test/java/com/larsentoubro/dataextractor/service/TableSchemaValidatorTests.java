@@ -0,0 +1,18 @@
+package com.larsentoubro.dataextractor.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TableSchemaValidatorTests {
+
+	@Test
+	void declaredTypeKeepsLengthPrecisionAndScale() {
+		assertEquals("varchar(20)", TableSchemaValidator.declaredType("varchar", 20, 0, 0));
+		assertEquals("nvarchar(50)", TableSchemaValidator.declaredType("nvarchar", 100, 0, 0));
+		assertEquals("nvarchar(max)", TableSchemaValidator.declaredType("nvarchar", -1, 0, 0));
+		assertEquals("decimal(18,2)", TableSchemaValidator.declaredType("decimal", 9, 18, 2));
+		assertEquals("datetime2(3)", TableSchemaValidator.declaredType("datetime2", 7, 23, 3));
+		assertEquals("int", TableSchemaValidator.declaredType("int", 4, 10, 0));
+	}
+}
@@ -0,0 +1,130 @@
+package com.larsentoubro.dataextractor.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.MSSQLServerContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs several coordinators, each standing in for one extractor instance, against a single SQL Server container.
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class WorkItemCoordinatorTests {
+
+	@Container
+	static final MSSQLServerContainer<?> SQL_SERVER = new MSSQLServerContainer<>("mcr.microsoft.com/mssql/server:2022-latest")
+			.acceptLicense();
+
+	private DataSource dataSource;
+	private String runId;
+
+	@BeforeEach
+	void setUp() {
+		dataSource = new DriverManagerDataSource(SQL_SERVER.getJdbcUrl(), SQL_SERVER.getUsername(), SQL_SERVER.getPassword());
+		runId = UUID.randomUUID().toString();
+	}
+
+	@Test
+	void onlyOneInstancePlansTheRun() {
+		WorkItemCoordinator first = coordinator(120);
+		WorkItemCoordinator second = coordinator(120);
+
+		assertTrue(first.planRun(workItems(2)));
+		assertFalse(second.planRun(workItems(2)));
+		assertTrue(second.isRunPlanned());
+	}
+
+	@Test
+	void eachWorkItemIsClaimedByOneInstance() {
+		WorkItemCoordinator first = coordinator(120);
+		WorkItemCoordinator second = coordinator(120);
+		first.planRun(workItems(2));
+
+		WorkItemCoordinator.WorkItem firstItem = first.claimNext().orElseThrow();
+		WorkItemCoordinator.WorkItem secondItem = second.claimNext().orElseThrow();
+		assertNotEquals(firstItem.id(), secondItem.id());
+		assertTrue(first.claimNext().isEmpty());
+		assertFalse(first.isRunFinished());
+
+		first.complete(firstItem, true);
+		second.complete(secondItem, true);
+		assertTrue(first.isRunFinished());
+		shutdown(first, second);
+	}
+
+	@Test
+	void expiredLeaseIsClaimedByAnotherInstance() throws InterruptedException {
+		WorkItemCoordinator owner = coordinator(1);
+		WorkItemCoordinator survivor = coordinator(1);
+		owner.planRun(workItems(1));
+
+		WorkItemCoordinator.WorkItem workItem = owner.claimNext().orElseThrow();
+		// Stopping the heartbeat stands in for the owning instance dying
+		owner.shutdown();
+		Thread.sleep(2500);
+
+		Optional<WorkItemCoordinator.WorkItem> reclaimed = survivor.claimNext();
+		assertTrue(reclaimed.isPresent());
+		assertEquals(workItem.id(), reclaimed.get().id());
+		assertThrows(IllegalStateException.class, () -> owner.checkLease(workItem.id()));
+
+		owner.complete(workItem, true);
+		assertFalse(survivor.isRunFinished());
+		survivor.complete(reclaimed.get(), true);
+		assertTrue(survivor.isRunFinished());
+		shutdown(survivor);
+	}
+
+	@Test
+	void ownerStopsOnceItsLeaseIsTakenOver() throws InterruptedException {
+		WorkItemCoordinator owner = coordinator(3);
+		owner.planRun(workItems(1));
+
+		WorkItemCoordinator.WorkItem workItem = owner.claimNext().orElseThrow();
+		owner.checkLease(workItem.id());
+
+		new JdbcTemplate(dataSource).update("UPDATE dbo.BATCH_WORK_ITEM SET OWNER = 'another-instance' WHERE WORK_ITEM_ID = ?",
+				workItem.id());
+		Thread.sleep(2500);
+
+		assertThrows(IllegalStateException.class, () -> owner.checkLease(workItem.id()));
+		shutdown(owner);
+	}
+
+	private WorkItemCoordinator coordinator(int leaseSeconds) {
+		WorkItemCoordinator coordinator = new WorkItemCoordinator(dataSource);
+		ReflectionTestUtils.setField(coordinator, "enabled", true);
+		ReflectionTestUtils.setField(coordinator, "runId", runId);
+		ReflectionTestUtils.setField(coordinator, "rangesPerTable", 1);
+		ReflectionTestUtils.setField(coordinator, "pollSeconds", 1);
+		ReflectionTestUtils.setField(coordinator, "leaseSeconds", leaseSeconds);
+		ReflectionTestUtils.setField(coordinator, "maxAttempts", 3);
+		coordinator.initializeSchema();
+		return coordinator;
+	}
+
+	private List<WorkItemCoordinator.WorkItem> workItems(int count) {
+		return IntStream.range(0, count)
+				.mapToObj(i -> new WorkItemCoordinator.WorkItem(null, "IOT_STORE", "dbo", "Devices", "dbo", "Devices",
+						i == 0 ? null : String.valueOf(i * 100), i == count - 1 ? null : String.valueOf((i + 1) * 100)))
+				.toList();
+	}
+
+	private void shutdown(WorkItemCoordinator... coordinators) {
+		for (WorkItemCoordinator coordinator : coordinators) {
+			coordinator.shutdown();
+		}
+	}
+}